@@ -0,0 +1,151 @@
+package net.launchpad.thermometer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures and draws texts using Java2D, for running {@link WidgetLayout} on a plain JVM.
+ * <p>
+ * Temperatures are drawn in a bold sans serif font and subtexts in a serif font, like on Android. Glyph shapes and
+ * metrics depend on which fonts are installed, so don't expect pixel identical results to what a device renders.
+ */
+class Java2dRenderCanvas implements RenderCanvas {
+    @NotNull
+    private final Graphics2D graphics;
+
+    @NotNull
+    private final FontRenderContext fontRenderContext;
+
+    /**
+     * Draw onto an image.
+     */
+    Java2dRenderCanvas(@NotNull BufferedImage image) {
+        graphics = image.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        fontRenderContext = graphics.getFontRenderContext();
+    }
+
+    /**
+     * Release the underlying {@link Graphics2D}.
+     */
+    void dispose() {
+        graphics.dispose();
+    }
+
+    @NotNull
+    private static Font getTemperatureFont(float textSize, int style) {
+        int awtStyle = Font.PLAIN;
+        if ((style & STYLE_BOLD) != 0) {
+            awtStyle |= Font.BOLD;
+        }
+        if ((style & STYLE_ITALIC) != 0) {
+            awtStyle |= Font.ITALIC;
+        }
+
+        Font font = new Font(Font.SANS_SERIF, awtStyle, 1).deriveFont(textSize);
+        if ((style & STYLE_STRIKE_THRU) != 0) {
+            Map<TextAttribute, Object> attributes = new HashMap<TextAttribute, Object>();
+            attributes.put(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON);
+            font = font.deriveFont(attributes);
+        }
+        return font;
+    }
+
+    @NotNull
+    private static Font getSubtextFont(float textSize) {
+        return new Font(Font.SERIF, Font.PLAIN, 1).deriveFont(textSize);
+    }
+
+    @Override
+    public void getTemperatureBounds(@NotNull String temperature, float textSize, int style, @NotNull float[] bounds) {
+        TextLayout layout = new TextLayout(temperature, getTemperatureFont(textSize, style), fontRenderContext);
+        Rectangle2D inkBounds = layout.getBounds();
+        bounds[0] = (float)inkBounds.getMinX();
+        bounds[1] = (float)inkBounds.getMinY();
+        bounds[2] = (float)inkBounds.getMaxX();
+        bounds[3] = (float)inkBounds.getMaxY();
+    }
+
+    @Override
+    public float getTemperatureDescent(float textSize, int style) {
+        LineMetrics metrics = getTemperatureFont(textSize, style).getLineMetrics("0", fontRenderContext);
+        return metrics.getDescent();
+    }
+
+    @Override
+    public float getSubtextLineHeight(float textSize) {
+        // Like on Android, a line is ascent + descent without any leading
+        LineMetrics metrics = getSubtextFont(textSize).getLineMetrics("0", fontRenderContext);
+        return metrics.getAscent() + metrics.getDescent();
+    }
+
+    /**
+     * Break the subtext into lines no wider than width.
+     * <p>
+     * Like Android's StaticLayout, an empty subtext is a single empty line.
+     */
+    @NotNull
+    private List<TextLayout> breakSubtext(@NotNull String subtext, float textSize, int width) {
+        List<TextLayout> lines = new ArrayList<TextLayout>();
+        if (subtext.isEmpty()) {
+            lines.add(null);
+            return lines;
+        }
+
+        AttributedString attributed = new AttributedString(subtext);
+        attributed.addAttribute(TextAttribute.FONT, getSubtextFont(textSize));
+        LineBreakMeasurer measurer = new LineBreakMeasurer(attributed.getIterator(), fontRenderContext);
+        while (measurer.getPosition() < subtext.length()) {
+            lines.add(measurer.nextLayout(width));
+        }
+        return lines;
+    }
+
+    @Override
+    public int getSubtextLineCount(@NotNull String subtext, float textSize, int width) {
+        return breakSubtext(subtext, textSize, width).size();
+    }
+
+    @Override
+    public void drawTemperature(@NotNull String temperature,
+                                float centerX, float baseline,
+                                float textSize, int style, int color)
+    {
+        TextLayout layout = new TextLayout(temperature, getTemperatureFont(textSize, style), fontRenderContext);
+        graphics.setColor(new Color(color, true));
+        layout.draw(graphics, centerX - layout.getAdvance() / 2f, baseline);
+    }
+
+    @Override
+    public void drawSubtext(@NotNull String subtext, float top, float textSize, int width, int color) {
+        graphics.setColor(new Color(color, true));
+
+        float lineHeight = getSubtextLineHeight(textSize);
+        float ascent = getSubtextFont(textSize).getLineMetrics("0", fontRenderContext).getAscent();
+        float lineTop = top;
+        for (TextLayout line : breakSubtext(subtext, textSize, width)) {
+            if (line != null) {
+                line.draw(graphics, (width - line.getAdvance()) / 2f, lineTop + ascent);
+            }
+            lineTop += lineHeight;
+        }
+    }
+}
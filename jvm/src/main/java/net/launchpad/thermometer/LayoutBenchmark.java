@@ -0,0 +1,60 @@
+package net.launchpad.thermometer;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+
+/**
+ * Time {@link WidgetLayout} layouts and renders using {@link Java2dRenderCanvas}.
+ * <p>
+ * Run using "./gradlew :jvm:benchmark".
+ */
+public class LayoutBenchmark {
+    private static final int SIZE = 270;
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 5000;
+
+    private static final String[][] CASES = {
+            { "-12°", "" },
+            { "7*", "14:35 Hjo" },
+            { "--°", "Click to enable network positioning" },
+            { "23°", "Downloading weather data..." },
+    };
+
+    /**
+     * Uncallable constructor to keep people from instantiating this class.
+     */
+    private LayoutBenchmark() {
+        // This block intentionally left blank
+    }
+
+    private static long time(boolean draw, int iterations, Java2dRenderCanvas canvas) {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            String[] testCase = CASES[i % CASES.length];
+            WidgetLayout layout =
+                    new WidgetLayout(testCase[0], TextMeasurer.STYLE_BOLD, testCase[1], false, SIZE, SIZE);
+            layout.layout(canvas);
+            if (draw) {
+                layout.draw(canvas, 0xffffffff);
+            }
+        }
+        long t1 = System.nanoTime();
+        return t1 - t0;
+    }
+
+    public static void main(String[] args) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Java2dRenderCanvas canvas = new Java2dRenderCanvas(image);
+
+        time(true, WARMUP_ITERATIONS, canvas);
+
+        long layoutNs = time(false, ITERATIONS, canvas);
+        long renderNs = time(true, ITERATIONS, canvas);
+        canvas.dispose();
+
+        System.out.println(String.format(Locale.ENGLISH, "Layout only:   %.1fus per widget",
+                layoutNs / 1000.0 / ITERATIONS));
+        System.out.println(String.format(Locale.ENGLISH, "Layout + draw: %.1fus per widget",
+                renderNs / 1000.0 / ITERATIONS));
+    }
+}
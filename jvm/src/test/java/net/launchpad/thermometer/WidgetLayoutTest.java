@@ -0,0 +1,192 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Validate {@link WidgetLayout} using {@link Java2dRenderCanvas}.
+ */
+public class WidgetLayoutTest extends TestCase {
+    private static final int SIZE = 120;
+
+    /**
+     * How many of the pixels may differ from the golden image before we fail.
+     */
+    private static final double MAX_DIFFERING_PIXELS_FRACTION = 0.01;
+
+    /**
+     * How much may a color channel differ before we consider two pixels different.
+     */
+    private static final int MAX_CHANNEL_DIFFERENCE = 16;
+
+    @NotNull
+    private static WidgetLayout layout(String temperature, int style, String subtext, boolean subtextImportant) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Java2dRenderCanvas canvas = new Java2dRenderCanvas(image);
+        WidgetLayout layout = new WidgetLayout(temperature, style, subtext, subtextImportant, SIZE, SIZE);
+        layout.layout(canvas);
+        canvas.dispose();
+        return layout;
+    }
+
+    public void testNoSubtextGivesBigTemperature() throws Exception {
+        WidgetLayout withSubtext =
+                layout("10°", TextMeasurer.STYLE_BOLD, "Weather service error, retry in 25min", false);
+        WidgetLayout withoutSubtext = layout("10°", TextMeasurer.STYLE_BOLD, "", false);
+
+        assertTrue(withoutSubtext.getTemperatureTextSize() > withSubtext.getTemperatureTextSize());
+    }
+
+    public void testTemperatureDoesNotOverlapSubtext() throws Exception {
+        String[] subtexts = {
+                "", "12:34 Hjo", "Click to enable network positioning", "Weather service error, retry in 25min"
+        };
+        for (String subtext : subtexts) {
+            for (boolean important : new boolean[] { false, true }) {
+                WidgetLayout layout = layout("-12°", TextMeasurer.STYLE_BOLD, subtext, important);
+
+                assertTrue(subtext, layout.getTemperatureBottom() <= layout.getSubtextStart() + 0.01f);
+                assertTrue(subtext, layout.getTemperatureBottom() <= SIZE * 0.6f + 0.01f);
+                assertTrue(subtext, layout.getSubtextLinesShown() >= 1);
+            }
+        }
+    }
+
+    public void testImportantSubtextGetsMoreLines() throws Exception {
+        String subtext = "Weather service error, retry in 25min, please be patient with us";
+        WidgetLayout normal = layout("-12°", TextMeasurer.STYLE_BOLD, subtext, false);
+        WidgetLayout important = layout("-12°", TextMeasurer.STYLE_BOLD, subtext, true);
+
+        assertTrue(important.getSubtextLinesShown() >= normal.getSubtextLinesShown());
+    }
+
+    public void testDrawBeforeLayout() throws Exception {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Java2dRenderCanvas canvas = new Java2dRenderCanvas(image);
+        try {
+            new WidgetLayout("10°", TextMeasurer.STYLE_BOLD, "", false, SIZE, SIZE).draw(canvas, 0xffffffff);
+            fail("Expected exception on draw() before layout()");
+        } catch (IllegalStateException e) {
+            assertEquals("layout() must be called first", e.getMessage());
+        } finally {
+            canvas.dispose();
+        }
+    }
+
+    public void testRenderKey() throws Exception {
+        WidgetLayout layout = new WidgetLayout("10°", TextMeasurer.STYLE_BOLD, "12:34 Hjo", false, SIZE, SIZE);
+        String key = layout.getRenderKey(0xffffffff);
+        assertTrue(key, key.matches("[0-9a-f]+"));
+
+        assertEquals(key,
+                new WidgetLayout("10°", TextMeasurer.STYLE_BOLD, "12:34 Hjo", false, SIZE, SIZE)
+                        .getRenderKey(0xffffffff));
+
+        assertFalse(key.equals(layout.getRenderKey(0xff000000)));
+        assertFalse(key.equals(
+                new WidgetLayout("11°", TextMeasurer.STYLE_BOLD, "12:34 Hjo", false, SIZE, SIZE)
+                        .getRenderKey(0xffffffff)));
+        assertFalse(key.equals(
+                new WidgetLayout("10°", TextMeasurer.STYLE_ITALIC, "12:34 Hjo", false, SIZE, SIZE)
+                        .getRenderKey(0xffffffff)));
+        assertFalse(key.equals(
+                new WidgetLayout("10°", TextMeasurer.STYLE_BOLD, "12:35 Hjo", false, SIZE, SIZE)
+                        .getRenderKey(0xffffffff)));
+        assertFalse(key.equals(
+                new WidgetLayout("10°", TextMeasurer.STYLE_BOLD, "12:34 Hjo", false, SIZE + 1, SIZE)
+                        .getRenderKey(0xffffffff)));
+    }
+
+    public void testGoldenBasic() throws Exception {
+        assertMatchesGolden("basic", "10°", TextMeasurer.STYLE_BOLD, "", false);
+    }
+
+    public void testGoldenMetadata() throws Exception {
+        assertMatchesGolden("metadata", "-12°", TextMeasurer.STYLE_BOLD, "14:35 Hjo", false);
+    }
+
+    public void testGoldenOld() throws Exception {
+        assertMatchesGolden("old", "7°", TextMeasurer.STYLE_STRIKE_THRU, "Network down, retry in 30min", false);
+    }
+
+    public void testGoldenNoWeather() throws Exception {
+        assertMatchesGolden("no-weather", "--°", TextMeasurer.STYLE_BOLD, "Click to enable network positioning", true);
+    }
+
+    public void testGoldenWindChilled() throws Exception {
+        assertMatchesGolden("wind-chilled", "-4*", TextMeasurer.STYLE_BOLD | TextMeasurer.STYLE_ITALIC, "", false);
+    }
+
+    @NotNull
+    private static BufferedImage render(String temperature, int style, String subtext, boolean subtextImportant) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Java2dRenderCanvas canvas = new Java2dRenderCanvas(image);
+        WidgetLayout layout = new WidgetLayout(temperature, style, subtext, subtextImportant, SIZE, SIZE);
+        layout.layout(canvas);
+        layout.draw(canvas, 0xffffffff);
+        canvas.dispose();
+        return image;
+    }
+
+    /**
+     * Render a widget and compare it to a golden image from src/test/resources/golden.
+     * <p>
+     * Run with -Dgolden.update=true to (re)generate the golden images.
+     */
+    private void assertMatchesGolden(String name,
+                                     String temperature, int style,
+                                     String subtext, boolean subtextImportant)
+            throws IOException
+    {
+        BufferedImage actual = render(temperature, style, subtext, subtextImportant);
+        String fileName = name + ".png";
+
+        if (Boolean.getBoolean("golden.update")) {
+            File goldenDir = new File(System.getProperty("golden.dir", "src/test/resources/golden"));
+            ImageIO.write(actual, "png", new File(goldenDir, fileName));
+            return;
+        }
+
+        InputStream goldenStream = getClass().getResourceAsStream("/golden/" + fileName);
+        assertNotNull("No golden image, run with -Dgolden.update=true to create one: " + fileName, goldenStream);
+        BufferedImage golden;
+        try {
+            golden = ImageIO.read(goldenStream);
+        } finally {
+            goldenStream.close();
+        }
+
+        assertEquals(golden.getWidth(), actual.getWidth());
+        assertEquals(golden.getHeight(), actual.getHeight());
+
+        int differingPixels = 0;
+        for (int y = 0; y < golden.getHeight(); y++) {
+            for (int x = 0; x < golden.getWidth(); x++) {
+                if (!isSimilar(golden.getRGB(x, y), actual.getRGB(x, y))) {
+                    differingPixels++;
+                }
+            }
+        }
+
+        double differingFraction = differingPixels / (double)(SIZE * SIZE);
+        assertTrue(String.format("%s: %d pixels differ from the golden image", name, differingPixels),
+                differingFraction <= MAX_DIFFERING_PIXELS_FRACTION);
+    }
+
+    private static boolean isSimilar(int argb1, int argb2) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            int channel1 = (argb1 >>> shift) & 0xff;
+            int channel2 = (argb2 >>> shift) & 0xff;
+            if (Math.abs(channel1 - channel2) > MAX_CHANNEL_DIFFERENCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
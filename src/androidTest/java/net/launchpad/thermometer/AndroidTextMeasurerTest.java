@@ -0,0 +1,52 @@
+package net.launchpad.thermometer;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link AndroidTextMeasurer}.
+ */
+public class AndroidTextMeasurerTest extends TestCase {
+    /**
+     * Verify that the line height we get from the font metrics is what a {@link StaticLayout} actually does.
+     */
+    public void testGetSubtextLineHeight() throws Exception {
+        AndroidTextMeasurer testMe = new AndroidTextMeasurer(100);
+
+        for (float textSize : new float[] { 12f, 20f, 33.3f, 60f }) {
+            TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+            paint.setTypeface(Typeface.SERIF);
+            paint.setTextSize(textSize);
+            StaticLayout layout =
+                    new StaticLayout("12:34 Hjo", paint, 200, Layout.Alignment.ALIGN_CENTER, 1f, 0f, false);
+            float measuredLineHeight = layout.getHeight() / (float)layout.getLineCount();
+
+            assertEquals(measuredLineHeight, testMe.getSubtextLineHeight(textSize), 0.001f);
+        }
+    }
+
+    public void testGetSubtextLineCount() throws Exception {
+        AndroidTextMeasurer testMe = new AndroidTextMeasurer(100);
+
+        assertEquals(1, testMe.getSubtextLineCount("", 20f, 200));
+        assertEquals(1, testMe.getSubtextLineCount("Hjo", 20f, 200));
+        assertTrue(testMe.getSubtextLineCount("Click to enable network positioning", 20f, 100) > 1);
+    }
+
+    public void testGetTemperatureBoundsScales() throws Exception {
+        AndroidTextMeasurer testMe = new AndroidTextMeasurer(100);
+
+        float[] small = new float[4];
+        testMe.getTemperatureBounds("-12°", 50f, TextMeasurer.STYLE_BOLD, small);
+        float[] large = new float[4];
+        testMe.getTemperatureBounds("-12°", 100f, TextMeasurer.STYLE_BOLD, large);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(large[i] / 2f, small[i], 0.001f);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link BroadcastFilter}.
+ */
+public class BroadcastFilterTest extends TestCase {
+    private static final long NOW = 1400000000000L;
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    public void testFirstEverIsForwarded() throws Exception {
+        assertNull(BroadcastFilter.decide("1/0/\"home\"", NOW, null, 0, 0, false));
+    }
+
+    public void testFreshWeather() throws Exception {
+        assertEquals(BroadcastFilter.Drop.FRESH_WEATHER,
+                BroadcastFilter.decide("1/0/\"home\"", NOW, "0/13/\"apn\"", 0, NOW - 5 * MINUTE_MS, false));
+    }
+
+    public void testFlapping() throws Exception {
+        long lastFetch = NOW - 60 * MINUTE_MS;
+
+        assertEquals(BroadcastFilter.Drop.SAME_NETWORK,
+                BroadcastFilter.decide("1/0/\"home\"", NOW, "1/0/\"home\"", NOW - MINUTE_MS, lastFetch, false));
+
+        // Another network is worth a look
+        assertNull(BroadcastFilter.decide("0/13/\"apn\"", NOW, "1/0/\"home\"", NOW - MINUTE_MS, lastFetch, false));
+
+        // So is the same network after a while
+        assertNull(BroadcastFilter.decide("1/0/\"home\"", NOW, "1/0/\"home\"", NOW - 10 * MINUTE_MS, lastFetch, false));
+    }
+
+    public void testClockChange() throws Exception {
+        // Timestamps from the future shouldn't block us forever
+        assertNull(BroadcastFilter.decide("1/0/\"home\"", NOW, "1/0/\"home\"", NOW + MINUTE_MS, NOW + MINUTE_MS,
+                false));
+    }
+
+    public void testLastFetchFailed() throws Exception {
+        // Reconnecting shortly after a failed fetch is our chance to recover
+        assertNull(BroadcastFilter.decide("1/0/\"home\"", NOW, "1/0/\"home\"", NOW - MINUTE_MS, NOW - 60 * MINUTE_MS,
+                true));
+    }
+}
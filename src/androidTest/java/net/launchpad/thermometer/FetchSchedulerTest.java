@@ -0,0 +1,125 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Validate {@link FetchScheduler}.
+ */
+public class FetchSchedulerTest extends TestCase {
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    /**
+     * All times in this test are minutes after this.
+     */
+    private static final long BASE_MS = 1400000000000L;
+
+    private static long at(int minutes) {
+        return BASE_MS + minutes * MINUTE_MS;
+    }
+
+    /**
+     * Create a cadence that has seen observations at the given minutes past 0.
+     */
+    private static FetchScheduler.Cadence createCadence(int... observationMinutes) {
+        FetchScheduler.Cadence cadence = new FetchScheduler.Cadence();
+        for (int minutes : observationMinutes) {
+            cadence.record(at(minutes));
+        }
+        return cadence;
+    }
+
+    public void testUnknownStation() throws Exception {
+        FetchScheduler.Cadence cadence = createCadence(0);
+        assertEquals(0, cadence.getInterval());
+        assertEquals(at(10) + FetchScheduler.DEFAULT_INTERVAL_MS, cadence.computeNextFetch(at(10)));
+    }
+
+    public void testRegularStation() throws Exception {
+        FetchScheduler.Cadence cadence = createCadence(0, 20, 40, 60, 80);
+        assertEquals(20 * MINUTE_MS, cadence.getInterval());
+
+        // Last observation at 80 minutes, next one expected at 100, fetch a little after that
+        assertEquals(at(100) + FetchScheduler.PUBLICATION_LAG_MS, cadence.computeNextFetch(at(85)));
+    }
+
+    public void testRegularStationWithMissedPublication() throws Exception {
+        // One publication missed between 40 and 80 shouldn't matter
+        FetchScheduler.Cadence cadence = createCadence(0, 20, 40, 80, 100, 120);
+        assertEquals(20 * MINUTE_MS, cadence.getInterval());
+    }
+
+    public void testIrregularStation() throws Exception {
+        FetchScheduler.Cadence cadence = createCadence(0, 10, 60, 75, 150, 160);
+        assertEquals(0, cadence.getInterval());
+    }
+
+    public void testLateStationBacksOff() throws Exception {
+        FetchScheduler.Cadence cadence = createCadence(0, 20, 40, 60);
+        long now = at(85);
+
+        // Nothing new at 85 minutes
+        cadence.record(at(60));
+        long firstRetry = cadence.computeNextFetch(now) - now;
+
+        cadence.record(at(60));
+        long secondRetry = cadence.computeNextFetch(now) - now;
+
+        assertEquals(FetchScheduler.MIN_DELAY_MS, firstRetry);
+        assertTrue(secondRetry > firstRetry);
+        assertTrue(secondRetry <= FetchScheduler.MAX_DELAY_MS);
+    }
+
+    public void testNeverTooSoonOrTooLate() throws Exception {
+        FetchScheduler.Cadence often = createCadence(0, 5, 10, 15, 20);
+        long now = at(24);
+        assertTrue(often.computeNextFetch(now) - now >= FetchScheduler.MIN_DELAY_MS);
+
+        FetchScheduler.Cadence seldom = createCadence(0, 180, 360, 540);
+        now = at(545);
+        assertEquals(FetchScheduler.MAX_DELAY_MS, seldom.computeNextFetch(now) - now);
+    }
+
+    public void testFormatAndParse() throws Exception {
+        FetchScheduler.Cadence cadence = createCadence(0, 20, 40, 60);
+        cadence.record(at(60));
+
+        FetchScheduler.Cadence parsed = FetchScheduler.Cadence.parse(cadence.format());
+        assertNotNull(parsed);
+        assertEquals(cadence.format(), parsed.format());
+        assertEquals(cadence.getInterval(), parsed.getInterval());
+
+        assertNull(FetchScheduler.Cadence.parse("garbage"));
+        assertNull(FetchScheduler.Cadence.parse("1;x;2"));
+    }
+
+    public void testEvictions() throws Exception {
+        Map<String, Object> stored = new HashMap<String, Object>();
+        stored.put("nextFetch", 17L);
+        stored.put("cadence:garbage", "garbage");
+        for (int i = 0; i < FetchScheduler.MAX_STATIONS; i++) {
+            stored.put("cadence:station" + i, createCadence(i).format());
+        }
+
+        // Updating a known station shouldn't forget anything but the garbage
+        assertEquals(Collections.singletonList("cadence:garbage"),
+                FetchScheduler.getEvictions(stored, "cadence:station0"));
+
+        // A new station should push out the one we heard from longest ago
+        stored.remove("cadence:garbage");
+        assertEquals(Collections.singletonList("cadence:station0"),
+                FetchScheduler.getEvictions(stored, "cadence:new"));
+    }
+
+    public void testScreenOffFetchTime() throws Exception {
+        assertEquals(0, FetchScheduler.getScreenOffFetchTime(0));
+
+        long fetchTime = FetchScheduler.getScreenOffFetchTime(at(0));
+        long expiry = at(WeatherPresenter.MAX_WEATHER_AGE_MINUTES);
+        assertTrue(fetchTime < expiry);
+        assertEquals(FetchScheduler.SCREEN_OFF_MARGIN_MS, expiry - fetchTime);
+    }
+}
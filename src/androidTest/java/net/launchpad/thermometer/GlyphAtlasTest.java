@@ -0,0 +1,137 @@
+package net.launchpad.thermometer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.util.Log;
+import junit.framework.TestCase;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Validate {@link GlyphAtlas}.
+ */
+public class GlyphAtlasTest extends TestCase {
+    private static final int TEXT_SIZE = 100;
+    private static final String[] TEMPERATURES = { "-12°", "7*", "--°", "23°", "-4*", "100°" };
+
+    public void testMeasureText() throws Exception {
+        GlyphAtlas atlas = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false);
+        Paint paint = GlyphAtlas.createTextPaint(TEXT_SIZE, Typeface.BOLD, false);
+
+        for (String temperature : TEMPERATURES) {
+            assertEquals(temperature, paint.measureText(temperature), atlas.measureText(temperature), 2f);
+        }
+    }
+
+    public void testGetTextBounds() throws Exception {
+        GlyphAtlas atlas = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD_ITALIC, false);
+        Paint paint = GlyphAtlas.createTextPaint(TEXT_SIZE, Typeface.BOLD_ITALIC, false);
+
+        for (String temperature : TEMPERATURES) {
+            Rect expected = new Rect();
+            paint.getTextBounds(temperature, 0, temperature.length(), expected);
+
+            RectF actual = new RectF();
+            atlas.getTextBounds(temperature, actual);
+
+            assertEquals(temperature, expected.width(), actual.width(), 2f);
+            assertEquals(temperature, expected.height(), actual.height(), 2f);
+        }
+    }
+
+    public void testUnsupportedGlyph() throws Exception {
+        GlyphAtlas atlas = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false);
+        try {
+            atlas.measureText("12C");
+            fail("Expected exception on unsupported glyph");
+        } catch (IllegalArgumentException e) {
+            assertEquals("No glyph for <C> in atlas", e.getMessage());
+        }
+    }
+
+    public void testSameAtlasReturned() throws Exception {
+        GlyphAtlas first = GlyphAtlas.get(TEXT_SIZE, Typeface.NORMAL, true);
+        assertSame(first, GlyphAtlas.get(TEXT_SIZE, Typeface.NORMAL, true));
+        assertNotSame(first, GlyphAtlas.get(TEXT_SIZE, Typeface.NORMAL, false));
+    }
+
+    /**
+     * Compare composing temperatures from the atlas with laying them out through {@link Paint}.
+     * <p>
+     * Timings end up in the log, look for "Benchmark". Nothing is asserted since wall clock timings vary too much
+     * between devices and runs.
+     */
+    public void testBenchmark() throws Exception {
+        final int ITERATIONS = 500;
+        Bitmap bitmap = Bitmap.createBitmap(TEXT_SIZE * 3, TEXT_SIZE * 2, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint textPaint = GlyphAtlas.createTextPaint(TEXT_SIZE, Typeface.BOLD, false);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+
+        GlyphAtlas atlas = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false);
+        Paint atlasPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        atlasPaint.setColor(Color.WHITE);
+
+        // Warm up both paths before timing anything
+        for (String temperature : TEMPERATURES) {
+            canvas.drawText(temperature, TEXT_SIZE, TEXT_SIZE, textPaint);
+            atlas.drawText(canvas, temperature, TEXT_SIZE, TEXT_SIZE, 0.9f, atlasPaint);
+        }
+
+        long t0 = System.nanoTime();
+        Rect bounds = new Rect();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String temperature = TEMPERATURES[i % TEMPERATURES.length];
+            textPaint.setTextSize(TEXT_SIZE);
+            textPaint.getTextBounds(temperature, 0, temperature.length(), bounds);
+            textPaint.setTextSize(TEXT_SIZE * 0.9f);
+            canvas.drawText(temperature, TEXT_SIZE, TEXT_SIZE, textPaint);
+        }
+        long t1 = System.nanoTime();
+        RectF atlasBounds = new RectF();
+        for (int i = 0; i < ITERATIONS; i++) {
+            String temperature = TEMPERATURES[i % TEMPERATURES.length];
+            atlas.getTextBounds(temperature, atlasBounds);
+            atlas.drawText(canvas, temperature, TEXT_SIZE, TEXT_SIZE, 0.9f, atlasPaint);
+        }
+        long t2 = System.nanoTime();
+
+        long drawTextUs = (t1 - t0) / 1000 / ITERATIONS;
+        long atlasUs = (t2 - t1) / 1000 / ITERATIONS;
+        Log.i(TAG, String.format("Benchmark: drawText()=%dus, atlas=%dus per temperature", drawTextUs, atlasUs));
+
+        bitmap.recycle();
+    }
+
+    public void testRebuiltOnSizeChange() throws Exception {
+        GlyphAtlas small = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false);
+        GlyphAtlas large = GlyphAtlas.get(TEXT_SIZE * 2, Typeface.BOLD, false);
+        assertNotSame(small, large);
+        assertEquals(TEXT_SIZE * 2, large.getTextSize());
+        assertEquals(2 * small.measureText("-12°"), large.measureText("-12°"), 4f);
+
+        // Going back should build a new atlas, the old one was dropped
+        assertNotSame(small, GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false));
+    }
+
+    public void testClear() throws Exception {
+        GlyphAtlas atlas = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false);
+        long byteCount = GlyphAtlas.getByteCount();
+        assertTrue(byteCount > 0);
+
+        assertEquals(byteCount, GlyphAtlas.clear());
+        assertEquals(0, GlyphAtlas.getByteCount());
+
+        // Cleared atlases should be rebuilt on demand
+        GlyphAtlas rebuilt = GlyphAtlas.get(TEXT_SIZE, Typeface.BOLD, false);
+        assertNotSame(atlas, rebuilt);
+        assertEquals(atlas.measureText("-12°"), rebuilt.measureText("-12°"));
+    }
+}
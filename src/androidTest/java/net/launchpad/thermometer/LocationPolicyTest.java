@@ -0,0 +1,54 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link LocationPolicy}.
+ */
+public class LocationPolicyTest extends TestCase {
+    private static final long MINUTE_MS = 60 * 1000L;
+    private static final float MOVE_METERS = UpdateListener.DEFAULT_MOVE_METERS;
+
+    public void testUnknownSpeed() throws Exception {
+        assertEquals(LocationPolicy.DEFAULT_INTERVAL_MS, new LocationPolicy().getInterval());
+    }
+
+    public void testComputeSpeed() throws Exception {
+        // Jitter within the accuracy means we're standing still
+        assertEquals(0f, LocationPolicy.computeSpeed(500, 1500, 10 * MINUTE_MS));
+
+        assertEquals(10f, LocationPolicy.computeSpeed(6100, 100, 10 * MINUTE_MS), 0.01f);
+
+        assertEquals(0f, LocationPolicy.computeSpeed(100, 0, 0));
+    }
+
+    public void testSmooth() throws Exception {
+        assertEquals(10f, LocationPolicy.smooth(-1, 10f));
+        assertEquals(5f, LocationPolicy.smooth(0, 10f), 0.01f);
+    }
+
+    public void testComputeInterval() throws Exception {
+        assertEquals(LocationPolicy.MAX_INTERVAL_MS, LocationPolicy.computeInterval(0, MOVE_METERS));
+
+        // Walking
+        assertEquals(LocationPolicy.MAX_INTERVAL_MS, LocationPolicy.computeInterval(0.5f, MOVE_METERS));
+
+        // Cycling, 5km takes a bit over 8 minutes
+        assertEquals(LocationPolicy.MIN_INTERVAL_MS, LocationPolicy.computeInterval(10f, MOVE_METERS));
+
+        // Somewhere in between
+        long interval = LocationPolicy.computeInterval(2f, MOVE_METERS);
+        assertTrue(interval > LocationPolicy.MIN_INTERVAL_MS);
+        assertTrue(interval < LocationPolicy.MAX_INTERVAL_MS);
+
+        // With weather stations further apart we can wait longer between updates
+        assertTrue(LocationPolicy.computeInterval(2f, 2 * MOVE_METERS) > interval);
+    }
+
+    public void testIsWorthChanging() throws Exception {
+        assertTrue(LocationPolicy.isWorthChanging(0, LocationPolicy.DEFAULT_INTERVAL_MS));
+        assertFalse(LocationPolicy.isWorthChanging(40 * MINUTE_MS, 41 * MINUTE_MS));
+        assertTrue(LocationPolicy.isWorthChanging(41 * MINUTE_MS, 120 * MINUTE_MS));
+        assertTrue(LocationPolicy.isWorthChanging(120 * MINUTE_MS, 10 * MINUTE_MS));
+    }
+}
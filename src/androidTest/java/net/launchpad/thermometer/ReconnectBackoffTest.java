@@ -0,0 +1,54 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link ReconnectBackoff}.
+ */
+public class ReconnectBackoffTest extends TestCase {
+    public void testBackoff() throws Exception {
+        ReconnectBackoff testMe = new ReconnectBackoff();
+        assertEquals(0, testMe.getDelay());
+
+        testMe.onAttempt(0);
+        testMe.onFailure();
+        assertEquals(ReconnectBackoff.INITIAL_DELAY_MS, testMe.getDelay());
+
+        testMe.onAttempt(1000);
+        testMe.onFailure();
+        assertEquals(2 * ReconnectBackoff.INITIAL_DELAY_MS, testMe.getDelay());
+
+        for (int i = 0; i < 100; i++) {
+            testMe.onAttempt(2000);
+            testMe.onFailure();
+        }
+        assertEquals(ReconnectBackoff.MAX_DELAY_MS, testMe.getDelay());
+
+        testMe.onAttempt(3000);
+        testMe.onConnected(3500);
+        assertEquals(0, testMe.getDelay());
+    }
+
+    public void testDisconnectsBackOff() throws Exception {
+        ReconnectBackoff testMe = new ReconnectBackoff();
+        testMe.onAttempt(0);
+        testMe.onConnected(100);
+
+        testMe.onDisconnected();
+        assertEquals(ReconnectBackoff.INITIAL_DELAY_MS, testMe.getDelay());
+    }
+
+    public void testIsConnecting() throws Exception {
+        ReconnectBackoff testMe = new ReconnectBackoff();
+        assertFalse(testMe.isConnecting(0));
+
+        testMe.onAttempt(1000);
+        assertTrue(testMe.isConnecting(2000));
+
+        // Lost attempts shouldn't block reconnects forever
+        assertFalse(testMe.isConnecting(1000 + ReconnectBackoff.CONNECT_TIMEOUT_MS));
+
+        testMe.onConnected(3000);
+        assertFalse(testMe.isConnecting(3000));
+    }
+}
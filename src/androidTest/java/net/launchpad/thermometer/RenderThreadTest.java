@@ -0,0 +1,76 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validate {@link RenderThread}.
+ */
+public class RenderThreadTest extends TestCase {
+    public void testBurstIsMerged() throws Exception {
+        final List<Integer> rendered = Collections.synchronizedList(new ArrayList<Integer>());
+        RenderThread<Integer> renderThread = new RenderThread<Integer>(new RenderThread.Renderer<Integer>() {
+            @Override
+            public void render(@NotNull Integer state) {
+                rendered.add(state);
+            }
+        });
+
+        try {
+            for (int i = 1; i <= 5; i++) {
+                renderThread.render(i);
+            }
+
+            // Long enough for the minimum render interval to pass
+            Thread.sleep(2500);
+
+            assertEquals(5, renderThread.getRequestedCount());
+            assertTrue(rendered.toString(), rendered.size() <= 2);
+            assertEquals(rendered.size(), renderThread.getPerformedCount());
+
+            // The last state must always end up rendered
+            assertEquals(Integer.valueOf(5), rendered.get(rendered.size() - 1));
+        } finally {
+            renderThread.quit();
+        }
+    }
+
+    /**
+     * A drain that finds nothing to render must not hold back the next render.
+     */
+    public void testEmptyFlushDoesNotDefer() throws Exception {
+        final List<Integer> rendered = Collections.synchronizedList(new ArrayList<Integer>());
+        RenderThread<Integer> renderThread = new RenderThread<Integer>(new RenderThread.Renderer<Integer>() {
+            @Override
+            public void render(@NotNull Integer state) {
+                rendered.add(state);
+            }
+        });
+
+        try {
+            final CountDownLatch flushed = new CountDownLatch(1);
+            renderThread.flush(new Runnable() {
+                @Override
+                public void run() {
+                    flushed.countDown();
+                }
+            });
+            assertTrue(flushed.await(1, TimeUnit.SECONDS));
+            assertEquals(0, renderThread.getPerformedCount());
+
+            renderThread.render(1);
+
+            // Well within the minimum render interval
+            Thread.sleep(300);
+            assertEquals(Collections.singletonList(1), rendered);
+        } finally {
+            renderThread.quit();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.launchpad.thermometer;
+
+import android.location.Location;
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link ServiceSnapshot}.
+ */
+public class ServiceSnapshotTest extends TestCase {
+    public void testFormatAndParseLocation() throws Exception {
+        Location location = new Location("network");
+        location.setLatitude(59.3190);
+        location.setLongitude(18.0518);
+        location.setAccuracy(1500);
+        location.setTime(1400000000000L);
+
+        Location parsed = ServiceSnapshot.parseLocation(ServiceSnapshot.formatLocation(location));
+        assertNotNull(parsed);
+        assertEquals("network", parsed.getProvider());
+        assertEquals(59.3190, parsed.getLatitude(), 0.0000001);
+        assertEquals(18.0518, parsed.getLongitude(), 0.0000001);
+        assertEquals(1500f, parsed.getAccuracy());
+        assertEquals(1400000000000L, parsed.getTime());
+    }
+
+    public void testLocationWithoutAccuracy() throws Exception {
+        Location location = new Location("Johan");
+        location.setLatitude(59.3190);
+        location.setLongitude(18.0518);
+
+        Location parsed = ServiceSnapshot.parseLocation(ServiceSnapshot.formatLocation(location));
+        assertNotNull(parsed);
+        assertFalse(parsed.hasAccuracy());
+    }
+
+    public void testParseBrokenLocation() throws Exception {
+        assertNull(ServiceSnapshot.parseLocation(""));
+        assertNull(ServiceSnapshot.parseLocation("network;1;2;3"));
+        assertNull(ServiceSnapshot.parseLocation("network;x;2;3;4"));
+    }
+}
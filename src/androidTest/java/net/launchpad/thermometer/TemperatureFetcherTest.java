@@ -2,10 +2,84 @@ package net.launchpad.thermometer;
 
 import junit.framework.TestCase;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class TemperatureFetcherTest extends TestCase {
     public void testCensorAppid() {
         assertEquals("whateverAPPID=XXXXXX",
                 TemperatureFetcher.censorAppid("whateverAPPID=139qe9ghguoh82824908429r2"));
         assertEquals("whatever", TemperatureFetcher.censorAppid("whatever"));
     }
+
+    public void testHandleStages() throws Exception {
+        TemperatureFetcher.Handle handle = new TemperatureFetcher.Handle();
+        assertEquals(TemperatureFetcher.Stage.QUEUED, handle.getStage());
+        assertFalse(handle.isFinished());
+
+        assertTrue(handle.advance(TemperatureFetcher.Stage.FETCHING));
+        assertTrue(handle.advance(TemperatureFetcher.Stage.PARSING));
+        assertFalse(handle.await(0, TimeUnit.MILLISECONDS));
+
+        assertTrue(handle.finish(TemperatureFetcher.Stage.DONE));
+        assertTrue(handle.isFinished());
+        assertTrue(handle.await(0, TimeUnit.MILLISECONDS));
+
+        // Finished fetches stay finished
+        assertFalse(handle.advance(TemperatureFetcher.Stage.PUBLISHING));
+        handle.cancel();
+        assertEquals(TemperatureFetcher.Stage.DONE, handle.getStage());
+    }
+
+    public void testCancelledHandleCantAdvance() throws Exception {
+        TemperatureFetcher.Handle handle = new TemperatureFetcher.Handle();
+        assertTrue(handle.advance(TemperatureFetcher.Stage.FETCHING));
+
+        handle.cancel();
+        assertTrue(handle.isCancelled());
+        assertTrue(handle.await(0, TimeUnit.MILLISECONDS));
+
+        assertFalse(handle.advance(TemperatureFetcher.Stage.PUBLISHING));
+        assertFalse(handle.finish(TemperatureFetcher.Stage.DONE));
+        assertEquals(TemperatureFetcher.Stage.CANCELLED, handle.getStage());
+    }
+
+    public void testPublishingHandleCantBeCancelled() throws Exception {
+        TemperatureFetcher.Handle handle = new TemperatureFetcher.Handle();
+        assertTrue(handle.advance(TemperatureFetcher.Stage.PUBLISHING));
+
+        // What we publish must also be persisted
+        handle.cancel();
+        assertEquals(TemperatureFetcher.Stage.PUBLISHING, handle.getStage());
+        assertTrue(handle.advance(TemperatureFetcher.Stage.PERSISTING));
+        assertFalse(handle.isFinished());
+
+        handle.cancel();
+        assertTrue(handle.finish(TemperatureFetcher.Stage.DONE));
+    }
+
+    public void testWhenFinished() throws Exception {
+        final AtomicInteger callbacks = new AtomicInteger();
+        Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                callbacks.incrementAndGet();
+            }
+        };
+
+        TemperatureFetcher.Handle handle = new TemperatureFetcher.Handle();
+        handle.whenFinished(callback);
+        assertEquals(0, callbacks.get());
+
+        handle.finish(TemperatureFetcher.Stage.FAILED);
+        assertEquals(1, callbacks.get());
+
+        // Finished already, should be called right away
+        handle.whenFinished(callback);
+        assertEquals(2, callbacks.get());
+
+        // Callbacks are called only once
+        handle.cancel();
+        assertEquals(2, callbacks.get());
+    }
 }
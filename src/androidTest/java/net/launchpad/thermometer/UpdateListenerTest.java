@@ -0,0 +1,40 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link UpdateListener}.
+ */
+public class UpdateListenerTest extends TestCase {
+    private static final float MOVE_METERS = UpdateListener.DEFAULT_MOVE_METERS;
+
+    public void testShouldRefetchOnDesk() throws Exception {
+        // Positioning jitter while lying on a desk
+        assertFalse(UpdateListener.shouldRefetch(300, 1500, MOVE_METERS, 30));
+        assertFalse(UpdateListener.shouldRefetch(0, 0, MOVE_METERS, 30));
+    }
+
+    public void testShouldRefetchWhenMoved() throws Exception {
+        assertTrue(UpdateListener.shouldRefetch(20000, 1000, MOVE_METERS, 30));
+
+        // Far, but that could all be positioning errors
+        assertFalse(UpdateListener.shouldRefetch(6000, 3000, MOVE_METERS, 30));
+    }
+
+    public void testShouldRefetchWhenStale() throws Exception {
+        assertTrue(UpdateListener.shouldRefetch(0, 0, MOVE_METERS, WeatherPresenter.MAX_WEATHER_AGE_MINUTES + 1));
+    }
+
+    public void testComputeMoveMeters() throws Exception {
+        assertEquals(8000f, UpdateListener.computeMoveMeters(8000));
+
+        // Stations next door or very far away
+        assertEquals(UpdateListener.MIN_MOVE_METERS, UpdateListener.computeMoveMeters(100));
+        assertEquals(UpdateListener.MAX_MOVE_METERS, UpdateListener.computeMoveMeters(100000));
+    }
+
+    public void testShouldRefetchWithSparseStations() throws Exception {
+        assertTrue(UpdateListener.shouldRefetch(15000, 1000, MOVE_METERS, 30));
+        assertFalse(UpdateListener.shouldRefetch(15000, 1000, UpdateListener.computeMoveMeters(20000), 30));
+    }
+}
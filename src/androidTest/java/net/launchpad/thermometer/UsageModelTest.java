@@ -0,0 +1,84 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Validate {@link UsageModel}.
+ */
+public class UsageModelTest extends TestCase {
+    /**
+     * Monday 2014-06-02 at the given time.
+     */
+    private static Calendar monday(int hour, int minute) {
+        return new GregorianCalendar(2014, Calendar.JUNE, 2, hour, minute);
+    }
+
+    private static UsageModel.Histogram createHistogram(Calendar look, int count) {
+        UsageModel.Histogram histogram = new UsageModel.Histogram();
+        for (int i = 0; i < count; i++) {
+            histogram.record(look);
+        }
+        return histogram;
+    }
+
+    public void testNothingLearned() throws Exception {
+        UsageModel.Histogram histogram = new UsageModel.Histogram();
+        assertEquals(0, histogram.predictNextLook(monday(6, 0)));
+        assertEquals("none yet", histogram.toString());
+    }
+
+    public void testTooFewLooks() throws Exception {
+        UsageModel.Histogram histogram = createHistogram(monday(7, 10), UsageModel.Histogram.LIKELY_LOOKS - 1);
+        assertEquals(0, histogram.predictNextLook(monday(6, 0)));
+    }
+
+    public void testPredictNextLook() throws Exception {
+        UsageModel.Histogram histogram = createHistogram(monday(7, 10), UsageModel.Histogram.LIKELY_LOOKS);
+        assertEquals("Mon 07", histogram.toString());
+
+        // Later the same hour
+        Calendar now = monday(7, 40);
+        assertEquals(now.getTimeInMillis(), histogram.predictNextLook(now));
+
+        // Earlier the same day
+        assertEquals(monday(7, 0).getTimeInMillis(), histogram.predictNextLook(monday(5, 33)));
+
+        // Later the same day means next week
+        Calendar nextMonday = monday(7, 0);
+        nextMonday.add(Calendar.DAY_OF_MONTH, 7);
+        assertEquals(nextMonday.getTimeInMillis(), histogram.predictNextLook(monday(9, 0)));
+    }
+
+    public void testPredictDoesNotModify() throws Exception {
+        UsageModel.Histogram histogram = createHistogram(monday(7, 10), UsageModel.Histogram.LIKELY_LOOKS);
+        Calendar now = monday(5, 33);
+        histogram.predictNextLook(now);
+        assertEquals(monday(5, 33), now);
+    }
+
+    public void testOldHabitsFade() throws Exception {
+        UsageModel.Histogram histogram = createHistogram(monday(7, 10), UsageModel.Histogram.LIKELY_LOOKS);
+
+        // Lots of looks at another time should eventually make the first time unlikely
+        Calendar other = monday(20, 0);
+        for (int i = 0; i < 100; i++) {
+            histogram.record(other);
+        }
+        assertEquals("Mon 20", histogram.toString());
+    }
+
+    public void testFormatAndParse() throws Exception {
+        UsageModel.Histogram histogram = createHistogram(monday(7, 10), UsageModel.Histogram.LIKELY_LOOKS);
+        histogram.record(monday(22, 0));
+
+        UsageModel.Histogram parsed = UsageModel.Histogram.parse(histogram.format());
+        assertNotNull(parsed);
+        assertEquals(histogram.format(), parsed.format());
+
+        assertNull(UsageModel.Histogram.parse("garbage"));
+        assertNull(UsageModel.Histogram.parse("1,2,3"));
+    }
+}
@@ -0,0 +1,102 @@
+package net.launchpad.thermometer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import junit.framework.TestCase;
+import net.launchpad.thermometer.WidgetManager.UpdateReason;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Validate {@link WakeupConsolidator}.
+ */
+public class WakeupConsolidatorTest extends TestCase {
+    private HandlerThread thread;
+    private List<EnumSet<UpdateReason>> cycles;
+    private WakeupConsolidator testMe;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        thread = new HandlerThread("WakeupConsolidatorTest");
+        thread.start();
+
+        cycles = Collections.synchronizedList(new ArrayList<EnumSet<UpdateReason>>());
+        testMe = new WakeupConsolidator(new Handler(thread.getLooper()), null, new WakeupConsolidator.Worker() {
+            @Override
+            public void doWork(@NotNull EnumSet<UpdateReason> reasons) {
+                cycles.add(reasons);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        thread.quit();
+
+        super.tearDown();
+    }
+
+    public void testBurstIsMerged() throws Exception {
+        testMe.trigger(UpdateReason.NETWORK_AVAILABLE);
+        testMe.trigger(UpdateReason.NETWORK_AVAILABLE);
+        testMe.trigger(UpdateReason.LOCATION_CHANGED);
+        testMe.trigger(UpdateReason.FETCH_TIMER);
+
+        Thread.sleep(WakeupConsolidator.WINDOW_MS / 2);
+        assertTrue(cycles.isEmpty());
+
+        Thread.sleep(WakeupConsolidator.WINDOW_MS);
+
+        assertEquals(1, cycles.size());
+        assertEquals(EnumSet.of(
+                UpdateReason.NETWORK_AVAILABLE,
+                UpdateReason.LOCATION_CHANGED,
+                UpdateReason.FETCH_TIMER),
+                cycles.get(0));
+        assertEquals(4, testMe.getTriggerCount());
+        assertEquals(1, testMe.getWakeupCount());
+    }
+
+    public void testDisplayIsImmediate() throws Exception {
+        testMe.trigger(UpdateReason.NETWORK_AVAILABLE);
+        testMe.trigger(UpdateReason.DISPLAY_OR_TIMER);
+
+        // Shouldn't have to wait for the window to close
+        Thread.sleep(WakeupConsolidator.WINDOW_MS / 4);
+
+        assertEquals(1, cycles.size());
+        assertEquals(EnumSet.of(UpdateReason.NETWORK_AVAILABLE, UpdateReason.DISPLAY_OR_TIMER), cycles.get(0));
+
+        // The window it closed early shouldn't produce another cycle
+        Thread.sleep(WakeupConsolidator.WINDOW_MS + 500);
+        assertEquals(1, cycles.size());
+    }
+
+    public void testSeparateWindows() throws Exception {
+        testMe.trigger(UpdateReason.NETWORK_AVAILABLE);
+        Thread.sleep(WakeupConsolidator.WINDOW_MS + 500);
+
+        testMe.trigger(UpdateReason.LOCATION_CHANGED);
+        Thread.sleep(WakeupConsolidator.WINDOW_MS + 500);
+
+        assertEquals(2, cycles.size());
+        assertEquals(EnumSet.of(UpdateReason.NETWORK_AVAILABLE), cycles.get(0));
+        assertEquals(EnumSet.of(UpdateReason.LOCATION_CHANGED), cycles.get(1));
+        assertEquals(2, testMe.getWakeupCount());
+    }
+
+    public void testCancel() throws Exception {
+        testMe.trigger(UpdateReason.NETWORK_AVAILABLE);
+        testMe.cancel();
+        Thread.sleep(WakeupConsolidator.WINDOW_MS + 500);
+
+        assertTrue(cycles.isEmpty());
+        assertEquals(0, testMe.getWakeupCount());
+    }
+}
@@ -68,4 +68,120 @@ public class WeatherPresenterTest extends TestCase {
         assertEquals("Excuse should be visible if weather is old",
                 "status", testMe.getSubtextString());
     }
+
+    public void testCanPresentAsText() throws Exception {
+        final long TWO_HUNDRED_MINUTES_IN_MS = 200L * 60L * 1000L;
+        Weather oldWeather =
+                WeatherTest.createWeather("Hjo", 10, 0,
+                        System.currentTimeMillis() - TWO_HUNDRED_MINUTES_IN_MS);
+        assertFalse("Old weather should be struck through in a bitmap",
+                new WeatherPresenter(oldWeather, "status").canPresentAsText());
+
+        // 2C with 10m/s wind chills to below freezing, which is shown in italics
+        WeatherPresenter chilled = new WeatherPresenter(WeatherTest.createWeather("Hjo", 2, 10), "status");
+        chilled.setWithWindChill(true);
+        assertTrue(chilled.isWindChilledAcrossFreezing());
+        assertFalse("Italics should be rendered in a bitmap", chilled.canPresentAsText());
+    }
+
+    public void testGetNextChange() throws Exception {
+        assertEquals(0, new WeatherPresenter(null, "status").getNextChange());
+
+        Weather fresh = WeatherTest.createWeather("Hjo", 10, 0);
+        long observationTime = fresh.getObservationTime().getTimeInMillis();
+        long nextChange = new WeatherPresenter(fresh, "status").getNextChange();
+        assertEquals(observationTime + (WeatherPresenter.MAX_WEATHER_AGE_MINUTES + 1) * 60 * 1000L, nextChange);
+
+        long longAgo = System.currentTimeMillis() - (WeatherPresenter.MAX_WEATHER_AGE_MINUTES + 10) * 60 * 1000L;
+        Weather old = WeatherTest.createWeather("Hjo", 10, 0, longAgo);
+        assertEquals(0, new WeatherPresenter(old, "status").getNextChange());
+    }
+
+    public void testStabilizerHoldsBackFlapping() throws Exception {
+        WeatherPresenter.Stabilizer testMe = new WeatherPresenter.Stabilizer(0.3);
+
+        testMe.update(true, false, 10.4, 10.4, 0);
+        assertEquals(10, testMe.getDegrees());
+
+        // Plain rounding would flap between 10 and 11 here
+        testMe.update(true, false, 10.6, 10.6, 0);
+        assertEquals(10, testMe.getDegrees());
+        testMe.update(true, false, 10.4, 10.4, 0);
+        assertEquals(10, testMe.getDegrees());
+        testMe.update(true, false, 10.7, 10.7, 0);
+        assertEquals(10, testMe.getDegrees());
+        assertEquals(2, testMe.getHeldBackCount());
+
+        // Past the band
+        testMe.update(true, false, 10.8, 10.8, 0);
+        assertEquals(11, testMe.getDegrees());
+
+        // Same input again shouldn't count as another held back change
+        testMe.update(true, false, 10.3, 10.3, 0);
+        testMe.update(true, false, 10.3, 10.3, 0);
+        assertEquals(11, testMe.getDegrees());
+        assertEquals(3, testMe.getHeldBackCount());
+    }
+
+    public void testStabilizerWithoutBand() throws Exception {
+        WeatherPresenter.Stabilizer testMe = new WeatherPresenter.Stabilizer(0);
+        for (double degrees : new double[] { 10.4, 10.6, 10.4, -3.6, -3.4 }) {
+            testMe.update(true, false, degrees, degrees, 0);
+            assertEquals((int)Math.round(degrees), testMe.getDegrees());
+        }
+        assertEquals(0, testMe.getHeldBackCount());
+    }
+
+    public void testStabilizerAcrossFreezing() throws Exception {
+        WeatherPresenter.Stabilizer testMe = new WeatherPresenter.Stabilizer(0.3);
+
+        testMe.update(true, true, -0.4, 0.4, 0);
+        assertFalse(testMe.isAcrossFreezing());
+
+        // Plain rounding would say we're across freezing now, but not by the band
+        testMe.update(true, true, -0.6, 0.6, 0);
+        assertFalse(testMe.isAcrossFreezing());
+
+        testMe.update(true, true, -0.9, 0.9, 0);
+        assertTrue(testMe.isAcrossFreezing());
+
+        // Plain rounding would say we're not across freezing any more, but not by the band
+        testMe.update(true, true, -0.4, 0.4, 0);
+        assertTrue(testMe.isAcrossFreezing());
+
+        testMe.update(true, true, -0.1, 0.1, 0);
+        assertFalse(testMe.isAcrossFreezing());
+    }
+
+    public void testStabilizerWindChillMarker() throws Exception {
+        WeatherPresenter.Stabilizer testMe = new WeatherPresenter.Stabilizer(0.3);
+
+        testMe.update(true, true, 10.4, 10.4, 0);
+        assertEquals(10, testMe.getDegrees());
+        assertFalse(testMe.isWindChilled());
+
+        // Plain rounding would show 10* here, since the unchilled temperature rounds to 11
+        testMe.update(true, true, 10.4, 10.6, 0);
+        assertEquals(10, testMe.getDegrees());
+        assertFalse(testMe.isWindChilled());
+        assertEquals(1, testMe.getHeldBackCount());
+
+        // Displayed temperature held back at 10, unchilled past the band, so this is 10*
+        testMe.update(true, true, 10.6, 10.9, 0);
+        assertEquals(10, testMe.getDegrees());
+        assertTrue(testMe.isWindChilled());
+
+        // Displayed temperature catching up with the unchilled one drops the marker
+        testMe.update(true, true, 10.9, 10.9, 0);
+        assertEquals(11, testMe.getDegrees());
+        assertFalse(testMe.isWindChilled());
+    }
+
+    public void testStabilizerUnitChange() throws Exception {
+        WeatherPresenter.Stabilizer testMe = new WeatherPresenter.Stabilizer(0.3);
+        testMe.update(true, false, 10.4, 10.4, 0);
+        testMe.update(false, false, 50.7, 50.7, 32);
+        assertEquals(51, testMe.getDegrees());
+        assertEquals(0, testMe.getHeldBackCount());
+    }
 }
@@ -35,6 +35,52 @@ public class WeatherTest extends TestCase {
         assertEquals(expectedDateString, actualDateString);
 
         assertEquals(5.90, verifyMe.getWindKnots(), 0.02);
+
+        // 20.6C and 100% humidity
+        assertEquals(28, verifyMe.getCentigrades(Weather.Metric.HUMIDEX));
+        assertEquals(21, verifyMe.getCentigrades(Weather.Metric.HEAT_INDEX));
+    }
+
+    public void testComputeWindChill() throws Exception {
+        // From http://en.wikipedia.org/wiki/Wind_chill#North_American_wind_chill_index
+        assertEquals(-17.9, Weather.computeWindChill(-10, 20), 0.1);
+
+        // Too warm or too calm for wind chill
+        assertEquals(15.0, Weather.computeWindChill(15, 20), 0.0);
+        assertEquals(-10.0, Weather.computeWindChill(-10, 3), 0.0);
+    }
+
+    public void testComputeHeatIndex() throws Exception {
+        // 90F and 70% humidity is 106F according to the US National Weather Service
+        assertEquals(106, Math.round(Weather.computeHeatIndex(32.22, 70) * 9.0 / 5.0 + 32.0));
+
+        // Too cool, too dry or unknown humidity
+        assertEquals(20.0, Weather.computeHeatIndex(20, 70), 0.0);
+        assertEquals(32.0, Weather.computeHeatIndex(32, 30), 0.0);
+        assertEquals(32.0, Weather.computeHeatIndex(32, Double.NaN), 0.0);
+    }
+
+    public void testComputeHumidex() throws Exception {
+        assertEquals(41, Math.round(Weather.computeHumidex(30, 70)));
+
+        // Too cool or unknown humidity
+        assertEquals(15.0, Weather.computeHumidex(15, 70), 0.0);
+        assertEquals(30.0, Weather.computeHumidex(30, Double.NaN), 0.0);
+
+        // Dry air doesn't make it feel colder
+        assertEquals(30.0, Weather.computeHumidex(30, 5), 0.0);
+    }
+
+    public void testMetrics() throws Exception {
+        Weather weather = createWeather("Foo", 5, 10);
+        assertEquals(weather.getCentigrades(true), weather.getCentigrades(Weather.Metric.WIND_CHILL));
+        assertEquals(weather.getFahrenheit(false), weather.getFahrenheit(Weather.Metric.TEMPERATURE));
+        assertEquals(weather.getExactCentigrades(Weather.Metric.WIND_CHILL) * 9.0 / 5.0 + 32.0,
+                weather.getExactFahrenheit(Weather.Metric.WIND_CHILL), 0.0001);
+
+        // We have no humidity, so those metrics should fall back to the temperature
+        assertEquals(5, weather.getCentigrades(Weather.Metric.HEAT_INDEX));
+        assertEquals(5, weather.getCentigrades(Weather.Metric.HUMIDEX));
     }
 
     public void testParseJsonError() throws Exception {
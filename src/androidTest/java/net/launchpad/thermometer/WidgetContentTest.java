@@ -0,0 +1,82 @@
+package net.launchpad.thermometer;
+
+import android.net.Uri;
+import junit.framework.TestCase;
+
+import java.util.EnumSet;
+
+/**
+ * Validate how {@link WidgetContent} classifies changes.
+ */
+public class WidgetContentTest extends TestCase {
+    private static final int WHITE = 0xffffffff;
+
+    public void testUnchanged() throws Exception {
+        WidgetContent content = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 2, WHITE);
+        WidgetContent same = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 2, WHITE);
+
+        assertTrue(same.getChanges(content).isEmpty());
+        assertTrue(same.canPartiallyUpdate(content));
+    }
+
+    public void testSubtextChange() throws Exception {
+        WidgetContent before = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 2, WHITE);
+        WidgetContent after = WidgetContent.createText("10°", 50, "Downloading weather data...", 10, 2, WHITE);
+
+        assertEquals(EnumSet.of(WidgetContent.Change.SUBTEXT), after.getChanges(before));
+        assertTrue(after.canPartiallyUpdate(before));
+
+        // Room for fewer lines is a subtext change as well
+        WidgetContent fewerLines = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 1, WHITE);
+        assertEquals(EnumSet.of(WidgetContent.Change.SUBTEXT), fewerLines.getChanges(before));
+        assertTrue(fewerLines.canPartiallyUpdate(before));
+    }
+
+    public void testTemperatureChange() throws Exception {
+        WidgetContent before = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 2, WHITE);
+
+        WidgetContent newTemperature = WidgetContent.createText("11°", 50, "12:34 Hjo", 10, 2, WHITE);
+        assertEquals(EnumSet.of(WidgetContent.Change.TEMPERATURE), newTemperature.getChanges(before));
+        assertFalse(newTemperature.canPartiallyUpdate(before));
+
+        // A longer subtext can shrink the temperature
+        WidgetContent smaller =
+                WidgetContent.createText("10°", 40, "Weather service error, retry in 25min", 10, 2, WHITE);
+        assertEquals(EnumSet.of(WidgetContent.Change.TEMPERATURE, WidgetContent.Change.SUBTEXT),
+                smaller.getChanges(before));
+        assertFalse(smaller.canPartiallyUpdate(before));
+    }
+
+    public void testColorChange() throws Exception {
+        WidgetContent before = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 2, WHITE);
+        WidgetContent after = WidgetContent.createText("10°", 50, "12:34 Hjo", 10, 2, 0xff000000);
+
+        assertEquals(EnumSet.of(WidgetContent.Change.COLOR), after.getChanges(before));
+        assertFalse(after.canPartiallyUpdate(before));
+    }
+
+    public void testLayoutChange() throws Exception {
+        WidgetContent text = WidgetContent.createText("10°", 50, "", 10, 2, WHITE);
+        WidgetContent frame = WidgetContent.createFrame("10°", "", WHITE,
+                Uri.parse("content://net.launchpad.thermometer.frames/0123.png"));
+
+        assertFalse(frame.canPartiallyUpdate(text));
+        assertFalse(text.canPartiallyUpdate(frame));
+    }
+
+    public void testFrameChange() throws Exception {
+        Uri uri1 = Uri.parse("content://net.launchpad.thermometer.frames/0123.png");
+        Uri uri2 = Uri.parse("content://net.launchpad.thermometer.frames/4567.png");
+
+        // Only the subtext changed, that's a partial update with a new frame
+        WidgetContent before = WidgetContent.createFrame("7°", "12:34 Hjo", WHITE, uri1);
+        WidgetContent after = WidgetContent.createFrame("7°", "Network down, retry in 30min", WHITE, uri2);
+        assertEquals(EnumSet.of(WidgetContent.Change.SUBTEXT), after.getChanges(before));
+        assertTrue(after.canPartiallyUpdate(before));
+
+        // Same strings in a new frame means the temperature style changed
+        WidgetContent restyled = WidgetContent.createFrame("7°", "12:34 Hjo", WHITE, uri2);
+        assertEquals(EnumSet.of(WidgetContent.Change.TEMPERATURE), restyled.getChanges(before));
+        assertFalse(restyled.canPartiallyUpdate(before));
+    }
+}
@@ -0,0 +1,31 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Validate {@link WidgetIdRegistry}.
+ */
+public class WidgetIdRegistryTest extends TestCase {
+    public void testFormatAndParse() throws Exception {
+        SortedSet<Integer> ids = new TreeSet<Integer>();
+        assertEquals("", WidgetIdRegistry.format(ids));
+        assertEquals(ids, WidgetIdRegistry.parse(""));
+
+        ids.add(17);
+        ids.add(4);
+        ids.add(123);
+        assertEquals("4,17,123", WidgetIdRegistry.format(ids));
+        assertEquals(ids, WidgetIdRegistry.parse("4,17,123"));
+    }
+
+    public void testParseGarbage() throws Exception {
+        SortedSet<Integer> expected = new TreeSet<Integer>();
+        expected.add(4);
+        expected.add(17);
+
+        assertEquals(expected, WidgetIdRegistry.parse("17,,x,4"));
+    }
+}
@@ -1,5 +1,6 @@
 package net.launchpad.thermometer;
 
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
 import junit.framework.TestCase;
 import org.jetbrains.annotations.NotNull;
@@ -29,4 +30,24 @@ public class WidgetManagerTest extends TestCase {
         // This shouldn't crash with an NPE
         widgetManager.scheduleTemperatureUpdate(null);
     }
+
+    public void testGetShedding() throws Exception {
+        assertEquals(WidgetManager.Shedding.NOTHING, WidgetManager.getShedding(0));
+
+        assertEquals(WidgetManager.Shedding.RENDER_CACHES,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE));
+        assertEquals(WidgetManager.Shedding.WEATHER,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW));
+        assertEquals(WidgetManager.Shedding.LOCATION_CACHES,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL));
+
+        assertEquals(WidgetManager.Shedding.RENDER_CACHES,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN));
+        assertEquals(WidgetManager.Shedding.RENDER_CACHES,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND));
+        assertEquals(WidgetManager.Shedding.WEATHER,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_MODERATE));
+        assertEquals(WidgetManager.Shedding.LOCATION_CACHES,
+                WidgetManager.getShedding(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+    }
 }
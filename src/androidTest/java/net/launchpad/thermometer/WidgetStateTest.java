@@ -0,0 +1,52 @@
+package net.launchpad.thermometer;
+
+import junit.framework.TestCase;
+
+/**
+ * Validate {@link WidgetState}.
+ */
+public class WidgetStateTest extends TestCase {
+    public void testInitial() throws Exception {
+        assertNull(WidgetState.INITIAL.weather);
+        assertNull(WidgetState.INITIAL.status);
+        assertNull(WidgetState.INITIAL.gpsaResolution);
+    }
+
+    public void testIsNewer() throws Exception {
+        long now = System.currentTimeMillis();
+        Weather old = WeatherTest.createWeather("Hjo", 10, 0, now - 60 * 60 * 1000);
+        Weather fresh = WeatherTest.createWeather("Hjo", 11, 0, now);
+
+        assertTrue(WidgetState.INITIAL.isNewer(old));
+
+        WidgetState withOld = WidgetState.INITIAL.withWeather(old);
+        assertTrue(withOld.isNewer(fresh));
+
+        WidgetState withFresh = WidgetState.INITIAL.withWeather(fresh);
+        assertFalse(withFresh.isNewer(old));
+        assertFalse(withFresh.isNewer(fresh));
+    }
+
+    public void testTransitionsDoNotModify() throws Exception {
+        Weather weather = WeatherTest.createWeather("Hjo", 10, 0);
+
+        WidgetState withWeather = WidgetState.INITIAL.withWeather(weather);
+        WidgetState withStatus = withWeather.withStatus("Downloading weather data...", null);
+
+        assertNull(WidgetState.INITIAL.weather);
+        assertNull(withWeather.status);
+
+        assertSame(weather, withStatus.weather);
+        assertEquals("Downloading weather data...", withStatus.status);
+    }
+
+    public void testWithoutWeather() throws Exception {
+        Weather weather = WeatherTest.createWeather("Hjo", 10, 0);
+        WidgetState withWeather = WidgetState.INITIAL.withWeather(weather).withStatus("Hello", null);
+
+        WidgetState withoutWeather = withWeather.withoutWeather();
+        assertNull(withoutWeather.weather);
+        assertEquals("Hello", withoutWeather.status);
+        assertSame(weather, withWeather.weather);
+    }
+}
@@ -0,0 +1,49 @@
+package net.launchpad.thermometer;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Draws texts onto an Android {@link Canvas}.
+ */
+class AndroidRenderCanvas extends AndroidTextMeasurer implements RenderCanvas {
+    @NotNull
+    private final Canvas canvas;
+
+    @NotNull
+    private final Paint temperaturePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * @see AndroidTextMeasurer#AndroidTextMeasurer(int)
+     */
+    AndroidRenderCanvas(@NotNull Canvas canvas, int atlasTextSize) {
+        super(atlasTextSize);
+        this.canvas = canvas;
+    }
+
+    @Override
+    public void drawTemperature(@NotNull String temperature,
+                                float centerX, float baseline,
+                                float textSize, int style, int color)
+    {
+        GlyphAtlas atlas = getAtlas(style);
+        temperaturePaint.setColor(color);
+        atlas.drawText(canvas, temperature, centerX, baseline, textSize / atlas.getTextSize(), temperaturePaint);
+    }
+
+    @Override
+    public void drawSubtext(@NotNull String subtext, float top, float textSize, int width, int color) {
+        StaticLayout subtextLayout = getSubtextLayout(subtext, textSize, width);
+        TextPaint subtextPaint = subtextLayout.getPaint();
+        assert subtextPaint != null;
+        subtextPaint.setColor(color);
+
+        canvas.save();
+        canvas.translate(0, top);
+        subtextLayout.draw(canvas);
+        canvas.restore();
+    }
+}
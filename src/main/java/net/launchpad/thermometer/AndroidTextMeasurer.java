@@ -0,0 +1,129 @@
+package net.launchpad.thermometer;
+
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures texts using {@link GlyphAtlas} for temperatures and {@link StaticLayout} for subtexts.
+ */
+class AndroidTextMeasurer implements TextMeasurer {
+    private static final Typeface SUBTEXT_TYPEFACE = Typeface.SERIF;
+
+    /**
+     * Recently built subtext layouts, by subtext, width, text size and typeface.
+     */
+    private static final Map<String, StaticLayout> SUBTEXT_LAYOUTS =
+            new LinkedHashMap<String, StaticLayout>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, StaticLayout> eldest) {
+                    return size() > 4;
+                }
+            };
+
+    private final int atlasTextSize;
+    private final RectF bounds = new RectF();
+
+    @NotNull
+    private final TextPaint subtextPaint = createSubtextPaint();
+
+    /**
+     * @param atlasTextSize Which text size to render glyph atlases at, should be at least as big as the largest
+     * temperature we'll draw
+     */
+    AndroidTextMeasurer(int atlasTextSize) {
+        this.atlasTextSize = atlasTextSize;
+    }
+
+    /**
+     * Drop all cached layouts and glyph atlases, for when we're short on memory. They will be rebuilt as needed.
+     *
+     * @return How many bytes of bitmap memory were freed
+     */
+    static long clearCaches() {
+        synchronized (SUBTEXT_LAYOUTS) {
+            SUBTEXT_LAYOUTS.clear();
+        }
+        return GlyphAtlas.clear();
+    }
+
+    @NotNull
+    private static TextPaint createSubtextPaint() {
+        TextPaint subtextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        subtextPaint.setTextAlign(Paint.Align.LEFT);
+        subtextPaint.setTypeface(SUBTEXT_TYPEFACE);
+        return subtextPaint;
+    }
+
+    @NotNull
+    protected GlyphAtlas getAtlas(int style) {
+        int typefaceStyle = style & (Typeface.BOLD | Typeface.ITALIC);
+        return GlyphAtlas.get(atlasTextSize, typefaceStyle, (style & STYLE_STRIKE_THRU) != 0);
+    }
+
+    @Override
+    public void getTemperatureBounds(@NotNull String temperature, float textSize, int style, @NotNull float[] bounds) {
+        GlyphAtlas atlas = getAtlas(style);
+        atlas.getTextBounds(temperature, this.bounds);
+
+        float scale = textSize / atlas.getTextSize();
+        bounds[0] = this.bounds.left * scale;
+        bounds[1] = this.bounds.top * scale;
+        bounds[2] = this.bounds.right * scale;
+        bounds[3] = this.bounds.bottom * scale;
+    }
+
+    @Override
+    public float getTemperatureDescent(float textSize, int style) {
+        GlyphAtlas atlas = getAtlas(style);
+        return atlas.getDescent() * textSize / atlas.getTextSize();
+    }
+
+    /**
+     * A {@link StaticLayout} without extra spacing or padding makes each line exactly descent - ascent pixels high, so
+     * we can get this from the font metrics without laying anything out.
+     */
+    @Override
+    public float getSubtextLineHeight(float textSize) {
+        subtextPaint.setTextSize(textSize);
+        Paint.FontMetricsInt fontMetrics = subtextPaint.getFontMetricsInt();
+        return fontMetrics.descent - fontMetrics.ascent;
+    }
+
+    @Override
+    public int getSubtextLineCount(@NotNull String subtext, float textSize, int width) {
+        return getSubtextLayout(subtext, textSize, width).getLineCount();
+    }
+
+    /**
+     * Get a memoized subtext layout, or build a new one.
+     * <p>
+     * Layouts are shared, so set the paint color before drawing.
+     */
+    @NotNull
+    protected StaticLayout getSubtextLayout(@NotNull String subtext, float textSize, int width) {
+        String key = subtext + '\0' + width + '\0' + textSize + '\0' + SUBTEXT_TYPEFACE.hashCode();
+        synchronized (SUBTEXT_LAYOUTS) {
+            StaticLayout cached = SUBTEXT_LAYOUTS.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        TextPaint paint = createSubtextPaint();
+        paint.setTextSize(textSize);
+        StaticLayout subtextLayout =
+                new StaticLayout(subtext, paint, width, Layout.Alignment.ALIGN_CENTER, 1f, 0f, false);
+        synchronized (SUBTEXT_LAYOUTS) {
+            SUBTEXT_LAYOUTS.put(key, subtextLayout);
+        }
+        return subtextLayout;
+    }
+}
@@ -0,0 +1,177 @@
+package net.launchpad.thermometer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.NetworkInfo;
+import android.net.Uri;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Decides which system broadcasts are worth starting {@link WidgetManager} for.
+ * <p>
+ * Flaky networks can send us dozens of connectivity changes per hour, and every package change in the system ends up
+ * in {@link ThermometerWidget}. Broadcasts we don't need are dropped here, and counted so we know how much we saved.
+ */
+class BroadcastFilter {
+    private static final String PREFERENCES_NAME = "broadcast-filter";
+    private static final String LAST_NETWORK_KEY = "lastNetwork";
+    private static final String LAST_FORWARDED_KEY = "lastForwardedTimestamp";
+    private static final String LAST_FETCH_KEY = "lastFetchTimestamp";
+    private static final String DROP_COUNT_PREFIX = "dropped:";
+
+    /**
+     * Don't bother about connectivity changes if we fetched the weather this recently.
+     */
+    static final long FRESH_WEATHER_MS = 15 * 60 * 1000L;
+
+    /**
+     * Connectivity changes for the same network closer than this are considered flapping.
+     */
+    static final long FLAP_WINDOW_MS = 5 * 60 * 1000L;
+
+    /**
+     * Why a broadcast was dropped.
+     */
+    enum Drop {
+        NOT_CONNECTED,
+        SAME_NETWORK,
+        FRESH_WEATHER,
+        OTHER_PACKAGE
+    }
+
+    private static final String GMS_PACKAGE = "com.google.android.gms";
+
+    private BroadcastFilter() {
+        // Don't instantiate this class
+    }
+
+    private static SharedPreferences getPreferences(@NotNull Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Should a connectivity change be forwarded to {@link WidgetManager}?
+     *
+     * @param networkInfo The currently active network, or null if there is none
+     */
+    static synchronized boolean shouldForwardConnectivity(
+            @NotNull Context context,
+            @Nullable NetworkInfo networkInfo)
+    {
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return drop(context, Drop.NOT_CONNECTED);
+        }
+
+        SharedPreferences preferences = getPreferences(context);
+        String network = getNetworkIdentity(networkInfo);
+        long now = System.currentTimeMillis();
+        Drop drop = decide(network, now,
+                preferences.getString(LAST_NETWORK_KEY, null),
+                preferences.getLong(LAST_FORWARDED_KEY, 0),
+                preferences.getLong(LAST_FETCH_KEY, 0),
+                FetchScheduler.isLastFetchFailed(context));
+        if (drop != null) {
+            return drop(context, drop);
+        }
+
+        preferences.edit()
+                .putString(LAST_NETWORK_KEY, network)
+                .putLong(LAST_FORWARDED_KEY, now)
+                .apply();
+        return true;
+    }
+
+    /**
+     * Should a package change be forwarded to {@link WidgetManager}?
+     * <p>
+     * We only care about Google Play Services; we need those for positioning.
+     *
+     * @param data The package URI from the broadcast
+     */
+    static synchronized boolean shouldForwardPackageChange(@NotNull Context context, @Nullable Uri data) {
+        if (data == null || !GMS_PACKAGE.equals(data.getSchemeSpecificPart())) {
+            return drop(context, Drop.OTHER_PACKAGE);
+        }
+        return true;
+    }
+
+    /**
+     * Decide whether to drop a connectivity change for a connected network.
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param network The identity of the connected network
+     * @param now The current time
+     * @param lastNetwork The identity of the network of the last forwarded connectivity change, or null
+     * @param lastForwarded When we last forwarded a connectivity change, 0 if never
+     * @param lastFetch When we last fetched the weather successfully, 0 if never
+     * @param lastFetchFailed True if our latest fetch attempt failed
+     *
+     * @return Why the change should be dropped, or null if it should be forwarded
+     */
+    @Nullable
+    static Drop decide(@NotNull String network, long now,
+                       @Nullable String lastNetwork, long lastForwarded, long lastFetch,
+                       boolean lastFetchFailed)
+    {
+        if (lastFetchFailed) {
+            // Whatever the network did, it may be working now and we have nothing better to go on
+            return null;
+        }
+
+        long fetchAge = now - lastFetch;
+        if (fetchAge >= 0 && fetchAge < FRESH_WEATHER_MS) {
+            return Drop.FRESH_WEATHER;
+        }
+
+        long forwardedAge = now - lastForwarded;
+        if (network.equals(lastNetwork) && forwardedAge >= 0 && forwardedAge < FLAP_WINDOW_MS) {
+            return Drop.SAME_NETWORK;
+        }
+
+        return null;
+    }
+
+    /**
+     * Tell us a fetch just succeeded; connectivity changes can't improve on that for a while.
+     */
+    static synchronized void onFetchSucceeded(@NotNull Context context) {
+        getPreferences(context).edit().putLong(LAST_FETCH_KEY, System.currentTimeMillis()).apply();
+    }
+
+    @NotNull
+    private static String getNetworkIdentity(@NotNull NetworkInfo networkInfo) {
+        // Extra info is the SSID for Wi-Fi and the APN for mobile networks
+        return networkInfo.getType() + "/" + networkInfo.getSubtype() + "/" + networkInfo.getExtraInfo();
+    }
+
+    private static boolean drop(@NotNull Context context, @NotNull Drop why) {
+        SharedPreferences preferences = getPreferences(context);
+        String key = DROP_COUNT_PREFIX + why.name();
+        int count = preferences.getInt(key, 0) + 1;
+        preferences.edit().putInt(key, count).apply();
+
+        Log.d(TAG, String.format("Dropped broadcast (%s), %d dropped for that reason so far", why, count));
+        return false;
+    }
+
+    /**
+     * Describe how many broadcasts we have dropped, and why.
+     */
+    @NotNull
+    static synchronized String describeDropCounts(@NotNull Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        StringBuilder returnMe = new StringBuilder();
+        for (Drop drop : Drop.values()) {
+            if (returnMe.length() > 0) {
+                returnMe.append(", ");
+            }
+            returnMe.append(drop).append('=').append(preferences.getInt(DROP_COUNT_PREFIX + drop.name(), 0));
+        }
+        return returnMe.toString();
+    }
+}
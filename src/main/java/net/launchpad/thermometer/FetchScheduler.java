@@ -0,0 +1,427 @@
+package net.launchpad.thermometer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Decides when to fetch the weather next.
+ * <p>
+ * Weather stations publish new observations at more or less regular intervals. We learn each station's interval from
+ * the observation times we get, and try to fetch just after the station should have published something new. Stations
+ * we can't figure out get polled at a slower, fixed rate.
+ */
+class FetchScheduler {
+    /**
+     * How long after a station's expected publication time do we fetch? The weather service needs some time to pick
+     * up new observations.
+     */
+    static final long PUBLICATION_LAG_MS = 5 * 60 * 1000L;
+
+    /**
+     * Never schedule fetches closer than this.
+     */
+    static final long MIN_DELAY_MS = 5 * 60 * 1000L;
+
+    /**
+     * How often we fetch when we don't know how often a station publishes.
+     */
+    static final long DEFAULT_INTERVAL_MS = 30 * 60 * 1000L;
+
+    /**
+     * Never wait longer than this between fetches.
+     */
+    static final long MAX_DELAY_MS = 60 * 60 * 1000L;
+
+    /**
+     * While the screen is off, fetch this long before our weather gets too old to show. Leaves room for a retry if the
+     * fetch fails.
+     */
+    static final long SCREEN_OFF_MARGIN_MS = 15 * 60 * 1000L;
+
+    /**
+     * Where we store the schedule, see {@link #getPreferences(Context)}.
+     */
+    private static final String PREFERENCES_NAME = "fetch-schedule";
+
+    /**
+     * How many stations' cadences do we keep? Traveling would otherwise add a new one for every station we get
+     * weather from.
+     */
+    static final int MAX_STATIONS = 8;
+
+    private static final String PREFERENCE_PREFIX = "cadence:";
+    private static final String NEXT_FETCH_KEY = "nextFetch";
+    private static final String LAST_FETCH_FAILED_KEY = "lastFetchFailed";
+
+    @NotNull
+    private final SharedPreferences preferences;
+
+    /**
+     * When should we fetch next? In {@link System#currentTimeMillis()} time, 0 means as soon as possible.
+     */
+    private long nextFetch = 0;
+
+    /**
+     * If our last fetch failed, we shouldn't wait for the schedule when the network comes back.
+     */
+    private boolean lastFetchFailed = false;
+
+    /**
+     * What a station's observation times have taught us about how often it publishes.
+     */
+    static class Cadence {
+        /**
+         * How many intervals to base our estimates on.
+         */
+        private static final int MAX_INTERVALS = 8;
+
+        /**
+         * We need at least this many intervals to say anything about a station.
+         */
+        private static final int MIN_INTERVALS = 3;
+
+        /**
+         * Intervals outside of this range are glitches rather than publication intervals.
+         */
+        private static final long MIN_INTERVAL_MS = 5 * 60 * 1000L;
+        private static final long MAX_INTERVAL_MS = 6 * 60 * 60 * 1000L;
+
+        /**
+         * How far from the median may the typical interval be for a station to be considered regular?
+         */
+        private static final double MAX_RELATIVE_DEVIATION = 0.25;
+
+        private long lastObservation;
+
+        /**
+         * How many fetches in a row have given us nothing new?
+         */
+        private int misses;
+
+        @NotNull
+        private final List<Long> intervals = new ArrayList<Long>();
+
+        /**
+         * Learn from a fetched observation.
+         *
+         * @param observationTime When the observation was made, in {@link System#currentTimeMillis()} time
+         */
+        void record(long observationTime) {
+            if (observationTime <= lastObservation) {
+                // Nothing new published since last time
+                misses++;
+                return;
+            }
+
+            if (lastObservation > 0) {
+                long interval = observationTime - lastObservation;
+                if (interval >= MIN_INTERVAL_MS && interval <= MAX_INTERVAL_MS) {
+                    intervals.add(interval);
+                    while (intervals.size() > MAX_INTERVALS) {
+                        intervals.remove(0);
+                    }
+                }
+            }
+
+            lastObservation = observationTime;
+            misses = 0;
+        }
+
+        private long getMedian(@NotNull List<Long> values) {
+            Long[] sorted = values.toArray(new Long[values.size()]);
+            Arrays.sort(sorted);
+            return sorted[sorted.length / 2];
+        }
+
+        /**
+         * How often does this station publish?
+         *
+         * @return The typical publication interval in milliseconds, or 0 if we don't know
+         */
+        long getInterval() {
+            if (intervals.size() < MIN_INTERVALS) {
+                return 0;
+            }
+
+            long median = getMedian(intervals);
+
+            // Use the median absolute deviation, a single missed publication shouldn't make a station irregular
+            List<Long> deviations = new ArrayList<Long>(intervals.size());
+            for (long interval : intervals) {
+                deviations.add(Math.abs(interval - median));
+            }
+            if (getMedian(deviations) > median * MAX_RELATIVE_DEVIATION) {
+                return 0;
+            }
+
+            return median;
+        }
+
+        /**
+         * When should we fetch next?
+         *
+         * @param now The current {@link System#currentTimeMillis()} time
+         */
+        long computeNextFetch(long now) {
+            long interval = getInterval();
+
+            long delay;
+            if (interval == 0) {
+                // Irregular or unknown station, poll it and back off while it gives us nothing new
+                delay = Math.min(DEFAULT_INTERVAL_MS << Math.min(misses, 4), MAX_DELAY_MS);
+            } else if (misses > 0) {
+                // The station is late, check back soon but not too often
+                delay = Math.min(MIN_DELAY_MS << Math.min(misses - 1, 4), MAX_DELAY_MS);
+            } else {
+                long periods = Math.max(1, (now - lastObservation + interval - 1) / interval);
+                long nextPublication = lastObservation + periods * interval;
+                delay = Math.min(nextPublication + PUBLICATION_LAG_MS - now, MAX_DELAY_MS);
+            }
+
+            return now + Math.max(delay, MIN_DELAY_MS);
+        }
+
+        @NotNull
+        String format() {
+            StringBuilder returnMe = new StringBuilder();
+            returnMe.append(lastObservation).append(';').append(misses).append(';');
+            for (int i = 0; i < intervals.size(); i++) {
+                if (i > 0) {
+                    returnMe.append(',');
+                }
+                returnMe.append(intervals.get(i));
+            }
+            return returnMe.toString();
+        }
+
+        /**
+         * Parse a string created by {@link #format()}.
+         *
+         * @return A cadence, or null if the string couldn't be parsed
+         */
+        @Nullable
+        static Cadence parse(@NotNull String formatted) {
+            String[] parts = formatted.split(";", -1);
+            if (parts.length != 3) {
+                return null;
+            }
+
+            Cadence cadence = new Cadence();
+            try {
+                cadence.lastObservation = Long.parseLong(parts[0]);
+                cadence.misses = Integer.parseInt(parts[1]);
+                for (String interval : parts[2].split(",")) {
+                    if (!interval.isEmpty()) {
+                        cadence.intervals.add(Long.valueOf(interval));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return cadence;
+        }
+
+        @Override
+        public String toString() {
+            long interval = getInterval();
+            return String.format("%s, %d misses, based on %d intervals",
+                    interval == 0 ? "irregularly" : "every " + Util.msToTimeString(interval),
+                    misses, intervals.size());
+        }
+    }
+
+    /**
+     * Where we store the schedule.
+     */
+    @NotNull
+    static SharedPreferences getPreferences(@NotNull Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Did the last fetch attempt fail? Reads the persisted schedule, for when we don't have a scheduler at hand.
+     *
+     * @see #hasLastFetchFailed()
+     */
+    static boolean isLastFetchFailed(@NotNull Context context) {
+        return getPreferences(context).getBoolean(LAST_FETCH_FAILED_KEY, false);
+    }
+
+    /**
+     * @param preferences Where we store what we learn about weather stations
+     */
+    FetchScheduler(@NotNull SharedPreferences preferences) {
+        this.preferences = preferences;
+
+        // Pick up where we were if the service was restarted
+        nextFetch = preferences.getLong(NEXT_FETCH_KEY, 0);
+        lastFetchFailed = preferences.getBoolean(LAST_FETCH_FAILED_KEY, false);
+    }
+
+    private void persistSchedule() {
+        preferences.edit()
+                .putLong(NEXT_FETCH_KEY, nextFetch)
+                .putBoolean(LAST_FETCH_FAILED_KEY, lastFetchFailed)
+                .apply();
+    }
+
+    @NotNull
+    private Cadence getCadence(@NotNull String stationName) {
+        String formatted = preferences.getString(PREFERENCE_PREFIX + stationName, null);
+        if (formatted == null) {
+            return new Cadence();
+        }
+
+        Cadence cadence = Cadence.parse(formatted);
+        if (cadence == null) {
+            Log.w(TAG, "Dropping unparsable cadence for " + stationName + ": <" + formatted + ">");
+            return new Cadence();
+        }
+        return cadence;
+    }
+
+    /**
+     * We just fetched an observation, learn from it and decide when to fetch next.
+     *
+     * @return When to fetch next, in {@link System#currentTimeMillis()} time
+     */
+    synchronized long onObservation(@NotNull Weather weather) {
+        long now = System.currentTimeMillis();
+        lastFetchFailed = false;
+        String stationName = weather.getStationName();
+        Calendar observationTime = weather.getObservationTime();
+        if (stationName == null || observationTime == null) {
+            nextFetch = now + DEFAULT_INTERVAL_MS;
+            persistSchedule();
+            Log.d(TAG, "Can't learn from anonymous or timeless observation, next fetch in "
+                    + Util.msToTimeString(DEFAULT_INTERVAL_MS));
+            return nextFetch;
+        }
+
+        Cadence cadence = getCadence(stationName);
+        cadence.record(observationTime.getTimeInMillis());
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString(PREFERENCE_PREFIX + stationName, cadence.format());
+        for (String key : getEvictions(preferences.getAll(), PREFERENCE_PREFIX + stationName)) {
+            Log.d(TAG, "Forgetting cadence of " + key.substring(PREFERENCE_PREFIX.length()));
+            editor.remove(key);
+        }
+        editor.apply();
+
+        nextFetch = cadence.computeNextFetch(now);
+        persistSchedule();
+        Log.d(TAG, String.format("%s publishes %s, next fetch in %s",
+                stationName, cadence, Util.msToTimeString(nextFetch - now)));
+        return nextFetch;
+    }
+
+    /**
+     * Which cadences should we forget to stay within {@link #MAX_STATIONS}? The ones we got observations from longest
+     * ago go first. Unparsable ones are always forgotten.
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param stored Everything in our preferences
+     * @param currentKey The preference key of the station we're storing a cadence for; never forgotten
+     *
+     * @return Preference keys to remove
+     */
+    @NotNull
+    static List<String> getEvictions(@NotNull Map<String, ?> stored, @NotNull String currentKey) {
+        List<String> evictions = new ArrayList<String>();
+        final Map<String, Long> lastObservations = new HashMap<String, Long>();
+        for (Map.Entry<String, ?> entry : stored.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(PREFERENCE_PREFIX) || key.equals(currentKey)) {
+                continue;
+            }
+
+            Cadence cadence = entry.getValue() instanceof String ? Cadence.parse((String)entry.getValue()) : null;
+            if (cadence == null) {
+                evictions.add(key);
+            } else {
+                lastObservations.put(key, cadence.lastObservation);
+            }
+        }
+
+        // Make room for the current station
+        int excess = lastObservations.size() + 1 - MAX_STATIONS;
+        if (excess <= 0) {
+            return evictions;
+        }
+
+        List<String> oldestFirst = new ArrayList<String>(lastObservations.keySet());
+        Collections.sort(oldestFirst, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return lastObservations.get(a).compareTo(lastObservations.get(b));
+            }
+        });
+        evictions.addAll(oldestFirst.subList(0, excess));
+        return evictions;
+    }
+
+    /**
+     * We failed to fetch anything.
+     *
+     * @return When to fetch next, in {@link System#currentTimeMillis()} time
+     */
+    synchronized long onFetchFailed() {
+        lastFetchFailed = true;
+        nextFetch = System.currentTimeMillis() + DEFAULT_INTERVAL_MS;
+        persistSchedule();
+        return nextFetch;
+    }
+
+    /**
+     * Did our last fetch attempt fail?
+     */
+    synchronized boolean hasLastFetchFailed() {
+        return lastFetchFailed;
+    }
+
+    /**
+     * When should we fetch next?
+     *
+     * @return A {@link System#currentTimeMillis()} time, or 0 if we should fetch as soon as possible
+     */
+    synchronized long getNextFetch() {
+        return nextFetch;
+    }
+
+    /**
+     * Is it time to fetch the weather?
+     */
+    synchronized boolean isFetchDue() {
+        return System.currentTimeMillis() >= nextFetch;
+    }
+
+    /**
+     * While the screen is off, nobody sees new weather. When must we fetch anyway to have something worth showing
+     * when the screen comes back on?
+     *
+     * @param observationTime When the weather we have was observed, or 0 if we have no weather
+     *
+     * @return A {@link System#currentTimeMillis()} time, or 0 if we should fetch as soon as possible
+     */
+    static long getScreenOffFetchTime(long observationTime) {
+        if (observationTime <= 0) {
+            return 0;
+        }
+        return observationTime + WeatherPresenter.MAX_WEATHER_AGE_MINUTES * 60 * 1000L - SCREEN_OFF_MARGIN_MS;
+    }
+}
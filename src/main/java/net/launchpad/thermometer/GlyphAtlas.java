@@ -0,0 +1,247 @@
+package net.launchpad.thermometer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Pre-rendered sprites for all characters that can show up in a temperature string.
+ * <p>
+ * Drawing a temperature is done by blitting sprites from this atlas rather than by laying out text through
+ * {@link Paint}. The sprites are alpha-only and get their color from the {@link Paint} passed to
+ * {@link #drawText(Canvas, String, float, float, float, Paint)}.
+ */
+class GlyphAtlas {
+    /**
+     * All characters {@link WeatherPresenter} can put in a temperature string.
+     */
+    static final String GLYPHS = "-0123456789°*";
+
+    /**
+     * Atlases for the current text size, by {@link #getStyleKey(int, boolean)}.
+     */
+    private static final Map<Integer, GlyphAtlas> CACHE = new HashMap<Integer, GlyphAtlas>();
+
+    /**
+     * The text size all atlases in {@link #CACHE} have been rendered with.
+     */
+    private static int cachedTextSize = -1;
+
+    private final Bitmap bitmap;
+    private final int textSize;
+
+    /**
+     * Where in {@link #bitmap} each glyph's origin is, indexed like {@link #GLYPHS}.
+     */
+    private final float[] originX = new float[GLYPHS.length()];
+    private final float[] advances = new float[GLYPHS.length()];
+    private final Rect[] glyphBounds = new Rect[GLYPHS.length()];
+
+    /**
+     * Where on the glyph rows the text baseline is.
+     */
+    private final float baseline;
+    private final float descent;
+    private final float[] cellLeft = new float[GLYPHS.length()];
+    private final float[] cellRight = new float[GLYPHS.length()];
+
+    private final Rect src = new Rect();
+    private final RectF dst = new RectF();
+
+    /**
+     * Get an atlas for the given text size and style, building it if we don't have one already.
+     * <p>
+     * Changing the text size drops all previously built atlases. Their bitmaps are left for the garbage collector
+     * rather than recycled, since the render thread may still be drawing from one of them.
+     *
+     * @param textSize The text size in pixels to render the sprites with; should be at least as large as the largest
+     * text we'll draw to avoid up-scaling
+     * @param typefaceStyle A {@link Typeface} style, like {@link Typeface#BOLD}
+     * @param strikeThru True if the sprites should be struck through
+     */
+    @NotNull
+    static synchronized GlyphAtlas get(int textSize, int typefaceStyle, boolean strikeThru) {
+        if (textSize != cachedTextSize) {
+            if (!CACHE.isEmpty()) {
+                Log.d(TAG, String.format("Text size changed %dpx->%dpx, dropping %d glyph atlases",
+                        cachedTextSize, textSize, CACHE.size()));
+            }
+            CACHE.clear();
+            cachedTextSize = textSize;
+        }
+
+        int key = getStyleKey(typefaceStyle, strikeThru);
+        GlyphAtlas atlas = CACHE.get(key);
+        if (atlas == null) {
+            long t0 = System.currentTimeMillis();
+            atlas = new GlyphAtlas(textSize, typefaceStyle, strikeThru);
+            CACHE.put(key, atlas);
+            long t1 = System.currentTimeMillis();
+            Log.d(TAG, String.format("Glyph atlas for style %d%s built at %dpx in %dms",
+                    typefaceStyle, strikeThru ? " (struck through)" : "", textSize, t1 - t0));
+        }
+        return atlas;
+    }
+
+    /**
+     * Drop all atlases, for when we're short on memory. They will be rebuilt as needed.
+     *
+     * @return How many bytes of bitmap memory were released to the garbage collector
+     */
+    static synchronized long clear() {
+        long freed = getByteCount();
+        CACHE.clear();
+        return freed;
+    }
+
+    /**
+     * How much bitmap memory are our atlases using?
+     */
+    static synchronized long getByteCount() {
+        long byteCount = 0;
+        for (GlyphAtlas atlas : CACHE.values()) {
+            byteCount += atlas.bitmap.getByteCount();
+        }
+        return byteCount;
+    }
+
+    private static int getStyleKey(int typefaceStyle, boolean strikeThru) {
+        return (typefaceStyle << 1) | (strikeThru ? 1 : 0);
+    }
+
+    /**
+     * Create a {@link Paint} set up to render text the way an atlas with the same parameters does.
+     * <p>
+     * Has default protection for benchmarking purposes.
+     */
+    @NotNull
+    static Paint createTextPaint(float textSize, int typefaceStyle, boolean strikeThru) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        if (strikeThru) {
+            paint.setFlags(paint.getFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
+        }
+        paint.setTextSize(textSize);
+        paint.setTypeface(Typeface.create(Typeface.DEFAULT, typefaceStyle));
+        return paint;
+    }
+
+    private GlyphAtlas(int textSize, int typefaceStyle, boolean strikeThru) {
+        this.textSize = textSize;
+
+        Paint paint = createTextPaint(textSize, typefaceStyle, strikeThru);
+        Paint.FontMetrics fontMetrics = paint.getFontMetrics();
+        baseline = -fontMetrics.top;
+        descent = paint.descent();
+        int rowHeight = (int)Math.ceil(fontMetrics.bottom - fontMetrics.top);
+
+        // Lay out all glyphs in a single row, leaving room for italic overhangs on both sides
+        float x = 0;
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            String glyph = GLYPHS.substring(i, i + 1);
+            advances[i] = paint.measureText(glyph);
+            glyphBounds[i] = new Rect();
+            paint.getTextBounds(glyph, 0, 1, glyphBounds[i]);
+
+            cellLeft[i] = Math.min(0, glyphBounds[i].left);
+            cellRight[i] = Math.max(advances[i], glyphBounds[i].right);
+
+            // One pixel of padding keeps filtered blits from bleeding into the neighbours
+            originX[i] = (float)Math.ceil(x - cellLeft[i]) + 1;
+            x = originX[i] + cellRight[i] + 1;
+        }
+
+        bitmap = Bitmap.createBitmap((int)Math.ceil(x), rowHeight, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < GLYPHS.length(); i++) {
+            canvas.drawText(GLYPHS, i, i + 1, originX[i], baseline, paint);
+        }
+    }
+
+    private static int indexOf(char glyph) {
+        int index = GLYPHS.indexOf(glyph);
+        if (index < 0) {
+            throw new IllegalArgumentException("No glyph for <" + glyph + "> in atlas");
+        }
+        return index;
+    }
+
+    /**
+     * The text size in pixels this atlas was rendered with.
+     */
+    int getTextSize() {
+        return textSize;
+    }
+
+    /**
+     * How far below the baseline does the atlas font go, at the atlas' own text size?
+     *
+     * @see Paint#descent()
+     */
+    float getDescent() {
+        return descent;
+    }
+
+    /**
+     * Like {@link Paint#measureText(String)} at the atlas' own text size.
+     */
+    float measureText(@NotNull String text) {
+        float width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += advances[indexOf(text.charAt(i))];
+        }
+        return width;
+    }
+
+    /**
+     * Like {@link Paint#getTextBounds(String, int, int, Rect)} at the atlas' own text size.
+     *
+     * @param bounds Receives the bounds, relative to the origin of the first character
+     */
+    void getTextBounds(@NotNull String text, @NotNull RectF bounds) {
+        bounds.setEmpty();
+        float penX = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int index = indexOf(text.charAt(i));
+            Rect glyph = glyphBounds[index];
+            if (!glyph.isEmpty()) {
+                bounds.union(penX + glyph.left, glyph.top, penX + glyph.right, glyph.bottom);
+            }
+            penX += advances[index];
+        }
+    }
+
+    /**
+     * Blit a string onto a canvas, horizontally centered around x.
+     *
+     * @param x The horizontal center of the text
+     * @param y The baseline of the text
+     * @param scale How much to scale the sprites; the resulting text size will be the atlas text size times this
+     * @param paint Used for the text color
+     */
+    void drawText(@NotNull Canvas canvas, @NotNull String text, float x, float y, float scale, @NotNull Paint paint) {
+        float penX = x - measureText(text) * scale / 2f;
+        for (int i = 0; i < text.length(); i++) {
+            int index = indexOf(text.charAt(i));
+
+            src.set((int)Math.floor(originX[index] + cellLeft[index]), 0,
+                    (int)Math.ceil(originX[index] + cellRight[index]), bitmap.getHeight());
+
+            float left = penX + (src.left - originX[index]) * scale;
+            float top = y - baseline * scale;
+            dst.set(left, top, left + src.width() * scale, top + src.height() * scale);
+            canvas.drawBitmap(bitmap, src, dst, paint);
+
+            penX += advances[index] * scale;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package net.launchpad.thermometer;
+
+import android.location.Location;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Decides how often we want location updates, based on how fast we seem to be moving.
+ * <p>
+ * We only care about moves long enough to get us weather from another station, so we ask for updates about as often
+ * as it takes us to move that far. A phone lying still gets updates rarely, a phone on a train gets them often.
+ */
+class LocationPolicy {
+    /**
+     * Never ask for location updates more often than this.
+     */
+    static final long MIN_INTERVAL_MS = 10 * 60 * 1000L;
+
+    /**
+     * Never ask for location updates less often than this.
+     */
+    static final long MAX_INTERVAL_MS = 2 * 60 * 60 * 1000L;
+
+    /**
+     * What we use until we know how fast we're moving.
+     */
+    static final long DEFAULT_INTERVAL_MS = 41 * 60 * 1000L;
+
+    /**
+     * Changing our location request costs a bit, don't do it for small interval changes.
+     */
+    private static final double MIN_CHANGE_RATIO = 1.5;
+
+    /**
+     * How much weight a new speed sample gets compared to what we already know.
+     */
+    private static final float SMOOTHING = 0.5f;
+
+    @Nullable
+    private Location previousFix;
+
+    /**
+     * Our estimated speed in meters per second, negative if unknown.
+     */
+    private float speedMps = -1;
+
+    /**
+     * How far we need to move to get weather from another station.
+     */
+    private float moveMeters = UpdateListener.DEFAULT_MOVE_METERS;
+
+    /**
+     * Learn from a new location fix.
+     */
+    void onFix(@NotNull Location fix) {
+        Location previous = previousFix;
+        if (previous != null && fix.getTime() > previous.getTime()) {
+            float sample;
+            if (fix.hasSpeed()) {
+                sample = fix.getSpeed();
+            } else {
+                float uncertaintyMeters = previous.getAccuracy() + fix.getAccuracy();
+                sample = computeSpeed(previous.distanceTo(fix), uncertaintyMeters, fix.getTime() - previous.getTime());
+            }
+            speedMps = smooth(speedMps, sample);
+        }
+
+        if (previous == null || fix.getTime() > previous.getTime()) {
+            previousFix = fix;
+        }
+    }
+
+    /**
+     * Forget our latest fix, for when we're short on memory. Our speed estimate is kept; the next fix just won't be
+     * used for improving it.
+     */
+    void trimMemory() {
+        previousFix = null;
+    }
+
+    /**
+     * @param moveMeters How far we need to move to get weather from another station, see
+     * {@link UpdateListener#getMoveMeters(Location, Weather)}
+     */
+    void setMoveMeters(float moveMeters) {
+        this.moveMeters = moveMeters;
+    }
+
+    /**
+     * How fast do we seem to be moving?
+     *
+     * @return Our speed in meters per second, or a negative number if we don't know.
+     */
+    float getSpeed() {
+        return speedMps;
+    }
+
+    /**
+     * How often do we want location updates?
+     */
+    long getInterval() {
+        if (speedMps < 0) {
+            return DEFAULT_INTERVAL_MS;
+        }
+        return computeInterval(speedMps, moveMeters);
+    }
+
+    /**
+     * Has default protection for testing purposes.
+     *
+     * @param distanceMeters How far apart two fixes are
+     * @param uncertaintyMeters How much of that distance could be positioning errors
+     * @param dtMs How far apart in time the fixes are
+     *
+     * @return The speed we're sure we moved at, in meters per second
+     */
+    static float computeSpeed(float distanceMeters, float uncertaintyMeters, long dtMs) {
+        if (dtMs <= 0) {
+            return 0;
+        }
+        return Math.max(0, distanceMeters - uncertaintyMeters) * 1000f / dtMs;
+    }
+
+    /**
+     * Has default protection for testing purposes.
+     */
+    static float smooth(float previousMps, float sampleMps) {
+        if (previousMps < 0) {
+            return sampleMps;
+        }
+        return previousMps + SMOOTHING * (sampleMps - previousMps);
+    }
+
+    /**
+     * How often do we want location updates when moving at a given speed?
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param moveMeters How far we need to move to get weather from another station
+     */
+    static long computeInterval(float speedMps, float moveMeters) {
+        if (speedMps <= 0) {
+            return MAX_INTERVAL_MS;
+        }
+
+        double intervalMs = moveMeters * 1000.0 / speedMps;
+        return (long)Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, intervalMs));
+    }
+
+    /**
+     * Is switching from one interval to another worth re-requesting location updates for?
+     */
+    static boolean isWorthChanging(long currentMs, long wantedMs) {
+        if (currentMs <= 0 || wantedMs <= 0) {
+            return currentMs != wantedMs;
+        }
+        double ratio = Math.max(currentMs, wantedMs) / (double)Math.min(currentMs, wantedMs);
+        return ratio >= MIN_CHANGE_RATIO;
+    }
+}
@@ -0,0 +1,102 @@
+package net.launchpad.thermometer;
+
+/**
+ * Keeps track of our connection attempts to the Google Play Services API, and decides how long to wait before the
+ * next one.
+ * <p>
+ * After each failure in a row we wait twice as long as the last time, up to {@link #MAX_DELAY_MS}. All times are
+ * {@link android.os.SystemClock#elapsedRealtime()} times.
+ */
+class ReconnectBackoff {
+    /**
+     * How long to wait after the first failure.
+     */
+    static final long INITIAL_DELAY_MS = 5000;
+
+    /**
+     * Never wait longer than this.
+     */
+    static final long MAX_DELAY_MS = 10 * 60 * 1000L;
+
+    /**
+     * Connection attempts running longer than this are considered lost.
+     */
+    static final long CONNECT_TIMEOUT_MS = 60 * 1000L;
+
+    private int consecutiveFailures = 0;
+
+    private int attempts = 0;
+    private int failures = 0;
+    private int disconnects = 0;
+    private int connects = 0;
+    private long totalConnectMs = 0;
+
+    /**
+     * When the attempt in progress was started, or -1 if no attempt is in progress.
+     */
+    private long attemptStart = -1;
+
+    /**
+     * We're starting a connection attempt.
+     */
+    void onAttempt(long now) {
+        attempts++;
+        attemptStart = now;
+    }
+
+    /**
+     * The connection attempt in progress succeeded.
+     */
+    void onConnected(long now) {
+        if (attemptStart >= 0) {
+            connects++;
+            totalConnectMs += now - attemptStart;
+            attemptStart = -1;
+        }
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * The connection attempt in progress failed.
+     */
+    void onFailure() {
+        failures++;
+        consecutiveFailures++;
+        attemptStart = -1;
+    }
+
+    /**
+     * We lost an established connection. Repeated disconnects back off just like failures do.
+     */
+    void onDisconnected() {
+        disconnects++;
+        consecutiveFailures++;
+        attemptStart = -1;
+    }
+
+    /**
+     * Is a connection attempt in progress?
+     */
+    boolean isConnecting(long now) {
+        return attemptStart >= 0 && now - attemptStart < CONNECT_TIMEOUT_MS;
+    }
+
+    /**
+     * How long should we wait before our next connection attempt?
+     */
+    long getDelay() {
+        if (consecutiveFailures == 0) {
+            return 0;
+        }
+
+        long delay = INITIAL_DELAY_MS << Math.min(consecutiveFailures - 1, 16);
+        return Math.min(delay, MAX_DELAY_MS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d connect attempts, %d failed, %d disconnects, %d connects averaging %s",
+                attempts, failures, disconnects, connects,
+                connects == 0 ? "-" : Util.msToTimeString(totalConnectMs / connects));
+    }
+}
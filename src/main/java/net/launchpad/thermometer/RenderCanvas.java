@@ -0,0 +1,27 @@
+package net.launchpad.thermometer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Draws texts for {@link WidgetLayout}. Implemented once per graphics backend.
+ */
+interface RenderCanvas extends TextMeasurer {
+    /**
+     * Draw a temperature string horizontally centered around centerX.
+     *
+     * @param style A combination of the STYLE_ flags
+     * @param color An ARGB color
+     */
+    void drawTemperature(@NotNull String temperature,
+                         float centerX, float baseline,
+                         float textSize, int style, int color);
+
+    /**
+     * Draw the subtext centered in a column of the given width, wrapping it the same way
+     * {@link #getSubtextLineCount(String, float, int)} does.
+     *
+     * @param top Where the first line starts
+     * @param color An ARGB color
+     */
+    void drawSubtext(@NotNull String subtext, float top, float textSize, int width, int color);
+}
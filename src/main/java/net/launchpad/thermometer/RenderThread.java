@@ -0,0 +1,153 @@
+package net.launchpad.thermometer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Renders widget updates on a thread of its own.
+ * <p>
+ * Requested states go into a single slot mailbox. A request arriving while another one is waiting replaces the waiting
+ * one, so a burst of requests costs only one render of the latest state.
+ * <p>
+ * Renders are at least {@link #MIN_RENDER_INTERVAL_MS} apart. Requests arriving sooner than that after a render wait
+ * for the interval to pass and are then rendered together; the latest requested state is always rendered eventually.
+ *
+ * @param <T> The kind of state we render
+ */
+class RenderThread<T> extends HandlerThread {
+    /**
+     * A fetch can update the status several times in a few hundred milliseconds, a second between renders lets us
+     * merge those into one.
+     */
+    private static final long MIN_RENDER_INTERVAL_MS = 1000;
+
+    /**
+     * Does the actual rendering.
+     */
+    interface Renderer<T> {
+        /**
+         * Called on the render thread.
+         */
+        void render(@NotNull T state);
+    }
+
+    @NotNull
+    private final AtomicReference<T> mailbox = new AtomicReference<T>();
+
+    @NotNull
+    private final Renderer<T> renderer;
+
+    @NotNull
+    private final Handler handler;
+
+    private final AtomicInteger requestedCount = new AtomicInteger();
+    private final AtomicInteger performedCount = new AtomicInteger();
+
+    /**
+     * When the last render started, in {@link SystemClock#uptimeMillis()} time.
+     */
+    private volatile long lastRenderUptime = 0;
+
+    private final Runnable drainMailbox = new Runnable() {
+        @Override
+        public void run() {
+            T state = mailbox.getAndSet(null);
+            if (state == null) {
+                // Already rendered by an earlier drain, or a flush found nothing to do. Either way there's no render
+                // for following requests to wait for.
+                return;
+            }
+
+            lastRenderUptime = SystemClock.uptimeMillis();
+            performedCount.incrementAndGet();
+            renderer.render(state);
+        }
+    };
+
+    /**
+     * Create and start a new render thread.
+     */
+    public RenderThread(@NotNull Renderer<T> renderer) {
+        super("Widget Renderer", Process.THREAD_PRIORITY_BACKGROUND);
+        this.renderer = renderer;
+
+        start();
+
+        // getLooper() blocks until the thread has started
+        handler = new Handler(getLooper());
+    }
+
+    /**
+     * Ask for a state to be rendered. Any not yet rendered state will be dropped in favor of this one.
+     */
+    public void render(@NotNull T state) {
+        requestedCount.incrementAndGet();
+
+        T dropped = mailbox.getAndSet(state);
+        if (dropped != null) {
+            // The drain we posted for the dropped state will pick up this one instead
+            Log.d(TAG, "Dropped not yet rendered UI state in favor of a newer one");
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        long renderAt = Math.max(now, lastRenderUptime + MIN_RENDER_INTERVAL_MS);
+        if (renderAt > now) {
+            Log.d(TAG, String.format("Deferring UI update %dms to merge it with any following ones", renderAt - now));
+        }
+        if (!handler.postAtTime(drainMailbox, renderAt)) {
+            Log.w(TAG, "Enqueueing UI update failed, render thread is gone");
+        }
+    }
+
+    /**
+     * Render any not yet rendered state right away, ignoring the rate limit, and then run something.
+     *
+     * @param then Called on the render thread after rendering
+     */
+    public void flush(@NotNull final Runnable then) {
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                drainMailbox.run();
+                then.run();
+            }
+        });
+        if (!posted) {
+            Log.w(TAG, "Flushing UI updates failed, render thread is gone");
+            then.run();
+        }
+    }
+
+    /**
+     * Run something on the render thread, for touching state that only the renderer uses.
+     */
+    public void post(@NotNull Runnable what) {
+        if (!handler.post(what)) {
+            Log.w(TAG, "Posting to render thread failed, render thread is gone");
+        }
+    }
+
+    /**
+     * How many times has {@link #render(Object)} been called?
+     */
+    int getRequestedCount() {
+        return requestedCount.get();
+    }
+
+    /**
+     * How many renders have actually been done?
+     */
+    int getPerformedCount() {
+        return performedCount.get();
+    }
+}
@@ -0,0 +1,169 @@
+package net.launchpad.thermometer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Remembers what {@link WidgetManager} and {@link UpdateListener} know, so that they can pick up where they were
+ * after the system has killed and restarted us.
+ * <p>
+ * Values are written as they change and read back when the service is created. When to fetch next is remembered by
+ * {@link FetchScheduler}.
+ */
+class ServiceSnapshot {
+    private static final String PREFERENCES_NAME = "service-state";
+    private static final String STATUS_KEY = "status";
+    private static final String FETCH_ALARM_KEY = "fetchAlarm";
+    private static final String BOOT_TIMESTAMP_KEY = "bootTimestamp";
+
+    /**
+     * Key for {@link UpdateListener}'s most recent location.
+     */
+    static final String CACHED_LOCATION = "cachedLocation";
+
+    /**
+     * Key for where {@link WidgetManager} last started a fetch.
+     */
+    static final String FETCHED_LOCATION = "fetchedLocation";
+
+    /**
+     * Boot timestamps computed at different times differ by a little; more than this means we have rebooted.
+     */
+    private static final long BOOT_TOLERANCE_MS = 60 * 1000L;
+
+    /**
+     * An alarm this far past due should have fired already.
+     */
+    private static final long ALARM_TOLERANCE_MS = 60 * 1000L;
+
+    private ServiceSnapshot() {
+        // Don't instantiate this class
+    }
+
+    private static SharedPreferences getPreferences(@NotNull Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * When was the device booted, in {@link System#currentTimeMillis()} time?
+     */
+    private static long getBootTimestamp() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
+
+    static void saveStatus(@NotNull Context context, @NotNull String status) {
+        getPreferences(context).edit().putString(STATUS_KEY, status).apply();
+    }
+
+    @Nullable
+    static String loadStatus(@NotNull Context context) {
+        return getPreferences(context).getString(STATUS_KEY, null);
+    }
+
+    /**
+     * Remember when our fetch alarm goes off.
+     *
+     * @param when A {@link System#currentTimeMillis()} time, or 0 if the alarm has been cancelled.
+     */
+    static void saveFetchAlarm(@NotNull Context context, long when) {
+        getPreferences(context).edit()
+                .putLong(FETCH_ALARM_KEY, when)
+                .putLong(BOOT_TIMESTAMP_KEY, getBootTimestamp())
+                .apply();
+    }
+
+    /**
+     * Is our fetch alarm still registered with the system?
+     * <p>
+     * Alarms survive us getting killed, but not the device rebooting.
+     *
+     * @return When the alarm goes off, or 0 if there is no alarm
+     */
+    static long loadFetchAlarm(@NotNull Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        long when = preferences.getLong(FETCH_ALARM_KEY, 0);
+        if (when == 0) {
+            return 0;
+        }
+
+        long bootTimestamp = preferences.getLong(BOOT_TIMESTAMP_KEY, 0);
+        if (Math.abs(getBootTimestamp() - bootTimestamp) > BOOT_TOLERANCE_MS) {
+            Log.d(TAG, "Rebooted since the fetch alarm was set, it's gone");
+            return 0;
+        }
+
+        if (when < System.currentTimeMillis() - ALARM_TOLERANCE_MS) {
+            Log.d(TAG, "Fetch alarm should have gone off already");
+            return 0;
+        }
+
+        return when;
+    }
+
+    static void saveLocation(@NotNull Context context, @NotNull String key, @NotNull Location location) {
+        getPreferences(context).edit().putString(key, formatLocation(location)).apply();
+    }
+
+    @Nullable
+    static Location loadLocation(@NotNull Context context, @NotNull String key) {
+        String formatted = getPreferences(context).getString(key, null);
+        if (formatted == null) {
+            return null;
+        }
+
+        Location location = parseLocation(formatted);
+        if (location == null) {
+            Log.w(TAG, "Dropping unparsable " + key + ": <" + formatted + ">");
+        }
+        return location;
+    }
+
+    /**
+     * Has default protection for testing purposes.
+     */
+    @NotNull
+    static String formatLocation(@NotNull Location location) {
+        return String.format("%s;%s;%s;%s;%d",
+                location.getProvider(),
+                Double.toString(location.getLatitude()),
+                Double.toString(location.getLongitude()),
+                Float.toString(location.getAccuracy()),
+                location.getTime());
+    }
+
+    /**
+     * Parse a string created by {@link #formatLocation(Location)}.
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @return A location, or null if the string couldn't be parsed
+     */
+    @Nullable
+    static Location parseLocation(@NotNull String formatted) {
+        String[] parts = formatted.split(";", -1);
+        if (parts.length != 5) {
+            return null;
+        }
+
+        try {
+            Location location = new Location(parts[0]);
+            location.setLatitude(Double.parseDouble(parts[1]));
+            location.setLongitude(Double.parseDouble(parts[2]));
+            float accuracy = Float.parseFloat(parts[3]);
+            if (accuracy > 0) {
+                location.setAccuracy(accuracy);
+            }
+            location.setTime(Long.parseLong(parts[4]));
+            return location;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
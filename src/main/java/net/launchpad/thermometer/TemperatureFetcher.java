@@ -30,7 +30,18 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,32 +51,213 @@ import org.json.JSONObject;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Handler.Callback;
-import android.os.Looper;
-import android.os.Message;
 import android.util.Log;
 
 /**
- * A background task fetching the current outdoor temperature from the
- * Internet.
+ * Fetches the current outdoor temperature from the Internet in the background.
+ * <p>
+ * Each fetch goes through a number of {@link Stage}s: the weather is downloaded, parsed, published and persisted to
+ * disk. Persisting comes after publishing so that it doesn't delay showing the weather, but a fetch isn't finished
+ * until the weather is on disk. All work is done on a small executor whose threads go away when there is nothing to
+ * do.
  */
-public class TemperatureFetcher extends Thread implements Callback {
+public class TemperatureFetcher {
     /**
-     * When should we at the earliest make the next attempt at fetching the weather?
+     * How many fetches can run at the same time?
      */
-    private long nextFetch = 0;
+    private static final int THREAD_COUNT = 2;
 
     /**
-     * Widget controller.
+     * How long do idle threads stick around?
      */
-    private final WidgetManager widgetManager;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Shared by all fetchers.
+     */
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+    /**
+     * When the weather we last persisted was observed, in {@link System#currentTimeMillis()} time. Guarded by the
+     * class lock.
+     */
+    private static long persistedObservationTime = 0;
+
+    /**
+     * Where a fetch is at.
+     */
+    public enum Stage {
+        QUEUED,
+        FETCHING,
+        PARSING,
+
+        /**
+         * From here on the fetch can't be cancelled.
+         */
+        PUBLISHING,
+
+        PERSISTING,
+
+        /**
+         * We got some weather and published it.
+         */
+        DONE,
+
+        /**
+         * We got no weather.
+         */
+        FAILED,
+
+        CANCELLED;
+
+        boolean isFinal() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    /**
+     * Keeps track of one fetch and lets you cancel it.
+     */
+    public static class Handle {
+        private final AtomicReference<Stage> stage = new AtomicReference<Stage>(Stage.QUEUED);
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        /**
+         * Run when we finish. Guarded by this.
+         */
+        private final List<Runnable> finishedCallbacks = new ArrayList<Runnable>();
+
+        /**
+         * Null until the fetch has been submitted.
+         */
+        @Nullable
+        private volatile Future<?> future;
+
+        /**
+         * What we downloaded, for persisting. Null until we have parsed something.
+         */
+        @Nullable
+        private volatile JSONObject jsonWeather;
+
+        /**
+         * Has default protection for testing purposes.
+         */
+        Handle() {
+            // Only we create handles
+        }
+
+        @NotNull
+        public Stage getStage() {
+            return stage.get();
+        }
+
+        public boolean isFinished() {
+            return getStage().isFinal();
+        }
+
+        public boolean isCancelled() {
+            return getStage() == Stage.CANCELLED;
+        }
+
+        /**
+         * Wait for this fetch to finish.
+         *
+         * @return True if the fetch finished, false if we timed out
+         */
+        public boolean await(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+            return finished.await(timeout, unit);
+        }
+
+        /**
+         * Run something when this fetch finishes, or right away if it already has.
+         *
+         * @param callback Called on whatever thread finishes the fetch
+         */
+        public void whenFinished(@NotNull Runnable callback) {
+            synchronized (this) {
+                if (!isFinished()) {
+                    finishedCallbacks.add(callback);
+                    return;
+                }
+            }
+            callback.run();
+        }
+
+        /**
+         * Stop this fetch. A cancelled fetch won't start publishing anything, and a fetch that has started
+         * publishing can't be cancelled.
+         */
+        public void cancel() {
+            while (true) {
+                Stage current = stage.get();
+                if (current.isFinal() || current.compareTo(Stage.PUBLISHING) >= 0) {
+                    return;
+                }
+                if (stage.compareAndSet(current, Stage.CANCELLED)) {
+                    Log.d(TAG, "Weather fetch " + current + " -> " + Stage.CANCELLED);
+                    break;
+                }
+            }
+            onFinished();
+
+            Future<?> cancelMe = future;
+            if (cancelMe != null) {
+                // Interrupts any wait between retries
+                cancelMe.cancel(true);
+            }
+        }
+
+        /**
+         * Move on to a new stage unless we're already finished.
+         * <p>
+         * Has default protection for testing purposes.
+         *
+         * @return False if we were already finished
+         */
+        boolean advance(@NotNull Stage next) {
+            while (true) {
+                Stage current = stage.get();
+                if (current.isFinal()) {
+                    return false;
+                }
+                if (stage.compareAndSet(current, next)) {
+                    Log.d(TAG, "Weather fetch " + current + " -> " + next);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Has default protection for testing purposes.
+         *
+         * @return False if we were already finished
+         */
+        boolean finish(@NotNull Stage last) {
+            if (!advance(last)) {
+                return false;
+            }
+            onFinished();
+            return true;
+        }
+
+        private void onFinished() {
+            finished.countDown();
+
+            List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = new ArrayList<Runnable>(finishedCallbacks);
+                finishedCallbacks.clear();
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
 
     /**
-     * Message handler.
+     * Widget controller.
      */
-    private Handler handler;
+    private final WidgetManager widgetManager;
 
     /**
      * Construct a new temperature fetcher.
@@ -73,11 +265,29 @@ public class TemperatureFetcher extends Thread implements Callback {
      * @param widgetManager The widget manager for which we're fetching weather.
      */
     public TemperatureFetcher(WidgetManager widgetManager) {
-        super("Temperature Fetcher");
-
         this.widgetManager = widgetManager;
     }
 
+    @NotNull
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NotNull Runnable runnable) {
+                return new Thread(runnable, "Temperature Fetcher " + threadCount.incrementAndGet());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @NotNull
     static String censorAppid(@NotNull String urlWithAppid) {
         int appIdIndex = urlWithAppid.indexOf("APPID=");
@@ -88,15 +298,41 @@ public class TemperatureFetcher extends Thread implements Callback {
         return urlWithAppid.substring(0, appIdIndex) + "APPID=XXXXXX";
     }
 
-    private static void saveJsonWeather(JSONObject jsonWeather, File jsonFile) {
+    /**
+     * Cache some weather on disk, unless weather observed later has been cached already.
+     * <p>
+     * Synchronized since two fetches may be persisting at the same time. The weather is written to a temporary file
+     * which then replaces jsonFile, so that nobody ever reads a half written file.
+     *
+     * @param observationTime When the weather was observed, in {@link System#currentTimeMillis()} time
+     */
+    private static synchronized void saveJsonWeather(
+            @NotNull JSONObject jsonWeather, long observationTime, @NotNull File jsonFile)
+    {
+        if (observationTime < persistedObservationTime) {
+            Log.i(TAG, "Newer weather already cached, not caching this weather");
+            return;
+        }
+
+        File tempFile = new File(jsonFile.getPath() + ".tmp");
         PrintWriter printWriter = null;
         try {
-            printWriter = new PrintWriter(new FileWriter(jsonFile));
+            printWriter = new PrintWriter(new FileWriter(tempFile));
             printWriter.println(jsonWeather.toString());
             printWriter.close();
+            if (printWriter.checkError()) {
+                throw new IOException("Writing " + tempFile.getAbsolutePath() + " failed");
+            }
+            if (!tempFile.renameTo(jsonFile)) {
+                throw new IOException("Renaming " + tempFile.getAbsolutePath() + " failed");
+            }
+            persistedObservationTime = observationTime;
             Log.i(TAG, "JSON weather cached into " + jsonFile.getAbsolutePath());
         } catch (IOException e) {
-            Log.e(TAG, "Unable to cache weather into " + jsonFile.getAbsolutePath());
+            Log.e(TAG, "Unable to cache weather into " + jsonFile.getAbsolutePath(), e);
+            if (tempFile.exists() && !tempFile.delete()) {
+                Log.w(TAG, "Unable to delete " + tempFile.getAbsolutePath());
+            }
         } finally {
             if (printWriter != null) {
                 printWriter.close();
@@ -109,6 +345,8 @@ public class TemperatureFetcher extends Thread implements Callback {
      * <p>
      * Has default protection for testing purposes.
      *
+     * @param handle Tracks our progress, and tells us if we have been cancelled.
+     *
      * @param latitude The latitude to get weather for.
      *
      * @param longitude The longitude to get weather for.
@@ -116,17 +354,7 @@ public class TemperatureFetcher extends Thread implements Callback {
      * @return Information from the nearest weather station, or null.
      */
     @Nullable
-    Weather fetchWeather(double latitude, double longitude) {
-        long minutesToNextFetch;
-        synchronized (this) {
-            minutesToNextFetch =
-                (nextFetch - System.currentTimeMillis()) / (60 * 1000);
-        }
-        if (minutesToNextFetch > 0) {
-            Log.d(TAG, "Last successful fetch valid for " + minutesToNextFetch + " more minutes, skipping");
-            return null;
-        }
-
+    Weather fetchWeather(@NotNull Handle handle, double latitude, double longitude) {
         // Create something like:
         // http://api.openweathermap.org/data/2.5/weather?lat=43&lon=-2&APPID=something
         // More info here:
@@ -165,23 +393,17 @@ public class TemperatureFetcher extends Thread implements Callback {
             boolean mightRetry = (attempt <= 10);
 
             try {
+                if (!handle.advance(Stage.FETCHING)) {
+                    return null;
+                }
                 jsonString = fetchUrl(url);
 
+                if (!handle.advance(Stage.PARSING)) {
+                    return null;
+                }
                 JSONObject jsonWeather = new JSONObject(jsonString);
                 Weather weather = new Weather(jsonWeather);
-                saveJsonWeather(jsonWeather, widgetManager.getWeatherJsonFile());
-
-                // If weather is 40 minutes old, wait at least 20 minutes until next fetch
-                int fetchValidMinutes = weather.getAgeMinutes() / 2;
-                if (fetchValidMinutes < 30) {
-                    fetchValidMinutes = 30;
-                }
-                if (fetchValidMinutes > 60) {
-                    fetchValidMinutes = 60;
-                }
-                synchronized (this) {
-                    nextFetch = System.currentTimeMillis() + fetchValidMinutes * 60 * 1000;
-                }
+                handle.jsonWeather = jsonWeather;
 
                 return weather;
             } catch (UnknownHostException e) {
@@ -217,6 +439,10 @@ public class TemperatureFetcher extends Thread implements Callback {
                 // per minute
                 Thread.sleep(23000);
             } catch (InterruptedException e) {
+                if (handle.isCancelled()) {
+                    Log.d(TAG, "Weather fetch cancelled while waiting to retry");
+                    return null;
+                }
                 widgetManager.setStatus("Weather fetch interrupted");
                 Log.w(TAG, "Interrupted waiting for weather from server", e);
                 return null;
@@ -281,83 +507,74 @@ public class TemperatureFetcher extends Thread implements Callback {
         return jsonBuilder.toString();
     }
 
-    @Override
-    public void run() {
-        Looper.prepare();
-
-        // As a side effect of this constructor, this Handler binds to our
-        // current thread.
-        synchronized (this) {
-            handler = new Handler(this);
-        }
-
-        Looper.loop();
-    }
-
     /**
      * Initiates a temperature fetch.
      *
      * @param latitude The latitude for which to fetch the temperature
      *
      * @param longitude The longitude for which to fetch the temperature
+     *
+     * @return A handle for keeping track of the fetch.
      */
-    public void fetchTemperature(double latitude, double longitude) {
-        Message message = Message.obtain();
-        assert message != null;
-
-        Bundle bundle = message.getData();
-        assert bundle != null;
-
-        bundle.putDouble("latitude", latitude);
-        bundle.putDouble("longitude", longitude);
-
-        while (true) {
-            synchronized (this) {
-                if (handler != null) {
-                    handler.sendMessage(message);
-                    break;
+    @NotNull
+    public Handle fetchTemperature(final double latitude, final double longitude) {
+        final Handle handle = new Handle();
+        handle.future = EXECUTOR.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetchAndPublish(handle, latitude, longitude);
+                } catch (RuntimeException e) {
+                    // Crashes while fetching are handled in fetchAndPublish(), by now we have scheduled the next fetch
+                    Log.e(TAG, "Publishing weather crashed", e);
+                    handle.finish(Stage.FAILED);
                 }
             }
-
-            // Wait for the message handler to become available in #run()
-            try {
-                Log.d(TAG, "Waiting 1s for message handler to become available");
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Interrupted waiting for message handler to become available", e);
-            }
-        }
+        });
+        return handle;
     }
 
-    @Override
-    public boolean handleMessage(@NotNull Message message) {
+    private void fetchAndPublish(@NotNull Handle handle, double latitude, double longitude) {
         Log.d(TAG, "Fetcher got temperature request...");
-        Bundle extras = message.peekData();
-        if (extras == null) {
-            Log.w(TAG, "Got message with no bundle, can't handle it: " + message);
-            widgetManager.setStatus("Internal error in handleMessage()");
-            return false;
+        Weather weather;
+        try {
+            weather = fetchWeather(handle, latitude, longitude);
+        } catch (RuntimeException e) {
+            // Treat this like any other failed fetch, so that we try again later
+            Log.e(TAG, "Weather fetch crashed", e);
+            weather = null;
         }
-        if (!extras.containsKey("latitude") || !extras.containsKey("longitude")) {
-            Log.w(TAG, "Message didn't contain both lat and lon, can't handle it: " + message);
-            widgetManager.setStatus("Missing lat/lon in handleMessage()");
-            return false;
+
+        if (!handle.advance(Stage.PUBLISHING)) {
+            Log.d(TAG, "Weather fetch cancelled, not publishing anything");
+            return;
         }
 
-        Weather weather =
-            fetchWeather(extras.getDouble("latitude"), extras.getDouble("longitude"));
-        if (weather != null) {
-            widgetManager.setWeather(
-                    weather,
-                    String.format("%s weather from %s",
-                            Util.minutesToTimeOldString(weather.getAgeMinutes()),
-                            weather.getStationName()));
-        } else {
+        // Decide when to fetch next
+        widgetManager.onFetchDone(weather);
+
+        if (weather == null) {
             Log.w(TAG, "Got null weather from fetchWeather()");
+            handle.finish(Stage.FAILED);
+            return;
         }
 
-        // Returning true means that we have handled the message according to:
-        // http://code.google.com/p/android/issues/detail?id=6464
-        return true;
+        widgetManager.setWeather(
+                weather,
+                String.format("%s weather from %s",
+                        Util.minutesToTimeOldString(weather.getAgeMinutes()),
+                        weather.getStationName()));
+
+        if (!handle.advance(Stage.PERSISTING)) {
+            return;
+        }
+        JSONObject jsonWeather = handle.jsonWeather;
+        assert jsonWeather != null;
+        Calendar observationTime = weather.getObservationTime();
+        saveJsonWeather(jsonWeather,
+                observationTime == null ? 0 : observationTime.getTimeInMillis(),
+                widgetManager.getWeatherJsonFile());
+
+        handle.finish(Stage.DONE);
     }
 }
@@ -0,0 +1,48 @@
+package net.launchpad.thermometer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Measures texts for {@link WidgetLayout}. Implemented once per graphics backend.
+ */
+interface TextMeasurer {
+    /**
+     * Temperature style flag, must have the same value as {@link android.graphics.Typeface#BOLD}.
+     */
+    int STYLE_BOLD = 1;
+
+    /**
+     * Temperature style flag, must have the same value as {@link android.graphics.Typeface#ITALIC}.
+     */
+    int STYLE_ITALIC = 2;
+
+    /**
+     * Temperature style flag.
+     */
+    int STYLE_STRIKE_THRU = 4;
+
+    /**
+     * Measure the ink bounds of a temperature string.
+     *
+     * @param style A combination of the STYLE_ flags
+     * @param bounds Receives left, top, right and bottom, relative to the start of the baseline
+     */
+    void getTemperatureBounds(@NotNull String temperature, float textSize, int style, @NotNull float[] bounds);
+
+    /**
+     * How far below the baseline does the temperature font go?
+     *
+     * @param style A combination of the STYLE_ flags
+     */
+    float getTemperatureDescent(float textSize, int style);
+
+    /**
+     * How high is one line of subtext at the given text size?
+     */
+    float getSubtextLineHeight(float textSize);
+
+    /**
+     * How many lines does the subtext wrap into?
+     */
+    int getSubtextLineCount(@NotNull String subtext, float textSize, int width);
+}
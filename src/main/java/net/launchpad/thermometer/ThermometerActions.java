@@ -5,16 +5,30 @@ import android.app.ActionBar.Tab;
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentTransaction;
+import android.appwidget.AppWidgetManager;
+import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
 /**
  * Wrapper activity for preferences and log viewing.
  */
 public class ThermometerActions extends Activity {
     public static final String SHOW_LOGS_EXTRA = "SHOW_LOGS_EXTRA";
 
+    private static final int MENU_DONE = Menu.FIRST;
+
+    /**
+     * The widget we're configuring, or {@link AppWidgetManager#INVALID_APPWIDGET_ID} if we're just showing settings.
+     */
+    private int widgetId = AppWidgetManager.INVALID_APPWIDGET_ID;
+
     @Override
     protected void onSaveInstanceState(@NotNull Bundle outState) {
         ActionBar actionBar = getActionBar();
@@ -30,6 +44,12 @@ public class ThermometerActions extends Activity {
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        widgetId = getIntent().getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, AppWidgetManager.INVALID_APPWIDGET_ID);
+        if (widgetId != AppWidgetManager.INVALID_APPWIDGET_ID) {
+            // Backing out cancels placing the widget
+            setResult(RESULT_CANCELED);
+        }
+
         ActionBar actionBar = getActionBar();
         assert actionBar != null;
 
@@ -53,6 +73,32 @@ public class ThermometerActions extends Activity {
             actionBar.selectTab(actionBar.getTabAt(1));
         }
     }
+
+    @Override
+    public boolean onCreateOptionsMenu(@NotNull Menu menu) {
+        if (widgetId != AppWidgetManager.INVALID_APPWIDGET_ID) {
+            menu.add(Menu.NONE, MENU_DONE, Menu.NONE, android.R.string.ok)
+                    .setShowAsAction(MenuItem.SHOW_AS_ACTION_ALWAYS);
+        }
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NotNull MenuItem item) {
+        if (item.getItemId() != MENU_DONE) {
+            return super.onOptionsItemSelected(item);
+        }
+
+        // The widget is placed, register it before the settings fragment triggers a widget update on our way out
+        Log.d(TAG, "Registering configured widget " + widgetId);
+        WidgetIdRegistry.add(this, new int[] { widgetId });
+
+        Intent result = new Intent();
+        result.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, widgetId);
+        setResult(RESULT_OK, result);
+        finish();
+        return true;
+    }
 }
 
 /**
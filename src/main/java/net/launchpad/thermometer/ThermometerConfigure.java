@@ -85,6 +85,19 @@ public class ThermometerConfigure extends PreferenceFragment {
         setUpColorPreferences();
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        Activity activity = getActivity();
+        if (activity != null && activity.isFinishing()) {
+            // Only when the user leaves the settings, not on rotations, app switches or dialogs. Picks up any change
+            // of the on-demand preference. Also shows other preference changes in on-demand mode, where nobody is
+            // listening for them.
+            WidgetManager.onUpdate(activity, WidgetManager.UpdateReason.DISPLAY_OR_TIMER);
+        }
+    }
+
     private void setUpColorPreferences() {
         final Activity activity = getActivity();
         assert activity != null;
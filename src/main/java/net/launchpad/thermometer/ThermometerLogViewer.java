@@ -198,6 +198,12 @@ public class ThermometerLogViewer extends Fragment {
 
             report.append("\n");
             report.append(getServiceCpuStats());
+            report.append("\nMemory: ");
+            report.append(WidgetManager.describeMemoryFootprint());
+
+            report.append("\n\n");
+            report.append(new UsageModel(getNonNullActivity().getSharedPreferences(
+                    UsageModel.PREFERENCES_NAME, Context.MODE_PRIVATE)));
 
             report.append("\n");
             report.append(getStoredLogs());
@@ -18,7 +18,6 @@
 
 package net.launchpad.thermometer;
 
-import android.net.Uri;
 import android.os.Bundle;
 import net.launchpad.thermometer.WidgetManager.UpdateReason;
 import android.appwidget.AppWidgetManager;
@@ -47,6 +46,7 @@ public class ThermometerWidget extends AppWidgetProvider {
         AppWidgetManager appWidgetManager,
         int[] appWidgetIds)
     {
+        WidgetIdRegistry.add(context, appWidgetIds);
         WidgetManager.onUpdate(context, UpdateReason.DISPLAY_OR_TIMER);
     }
 
@@ -63,19 +63,9 @@ public class ThermometerWidget extends AppWidgetProvider {
                 || Intent.ACTION_PACKAGE_REMOVED.equals(action))
         {
             // Update UI on for Google Play Services changes; we need those services for positioning
-            Uri data = intent.getData();
-            if (data == null) {
-                super.onReceive(context, intent);
-                return;
+            if (BroadcastFilter.shouldForwardPackageChange(context, intent.getData())) {
+                WidgetManager.onUpdate(context, UpdateReason.GPSA_RECONNECT);
             }
-
-            String packageName = data.getSchemeSpecificPart();
-            if (!"com.google.android.gms".equals(packageName)) {
-                super.onReceive(context, intent);
-                return;
-            }
-
-            WidgetManager.onUpdate(context, UpdateReason.GPSA_RECONNECT);
         } else {
             super.onReceive(context, intent);
         }
@@ -91,6 +81,7 @@ public class ThermometerWidget extends AppWidgetProvider {
                 AppWidgetManager.EXTRA_APPWIDGET_ID,
                 AppWidgetManager.INVALID_APPWIDGET_ID);
         if (appWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID) {
+            // onDeleted() takes care of the widget ID registry
             Log.d(TAG, "onReceive() faking call to onDeleted()");
             this.onDeleted(context, new int[] { appWidgetId });
         }
@@ -102,22 +93,18 @@ public class ThermometerWidget extends AppWidgetProvider {
                 (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
 
         NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
-        if (networkInfo == null) {
-            Log.d(TAG, "No active data network");
-            return;
-        }
-
-        if (!networkInfo.isConnected()) {
-            Log.d(TAG, "Active network not connected");
+        if (!BroadcastFilter.shouldForwardConnectivity(context, networkInfo)) {
             return;
         }
 
+        assert networkInfo != null;
         Log.d(TAG, "Network available, triggering update: " + networkInfo.getTypeName());
         WidgetManager.onUpdate(context, UpdateReason.NETWORK_AVAILABLE);
     }
 
     @Override
     public synchronized void onDeleted(@NotNull Context context, int[] deletedIds) {
+        WidgetIdRegistry.remove(context, deletedIds);
         WidgetManager.onUpdate(context, UpdateReason.DISPLAY_OR_TIMER);
     }
 }
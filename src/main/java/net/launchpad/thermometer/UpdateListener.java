@@ -24,9 +24,12 @@ import static net.launchpad.thermometer.Util.ProviderStatus;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.Settings;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesClient;
@@ -51,10 +54,44 @@ import java.util.Map;
 public class UpdateListener
 implements LocationListener, Closeable
 {
+    /**
+     * Never refetch for moves shorter than this, however close the weather station is.
+     */
+    static final float MIN_MOVE_METERS = 2000;
+
+    /**
+     * Always refetch for moves longer than this, however far away the weather station is.
+     */
+    static final float MAX_MOVE_METERS = 20000;
+
+    /**
+     * How far we need to move when we don't know where the weather station is.
+     */
+    static final float DEFAULT_MOVE_METERS = 5000;
+
     private Handler handler = new Handler();
 
     private boolean closed = false;
 
+    /**
+     * Decides when to retry connecting to the Google Play Services API.
+     */
+    @NotNull
+    private final ReconnectBackoff gpsaBackoff = new ReconnectBackoff();
+
+    /**
+     * Is a {@link #reconnect} posted to {@link #handler}?
+     */
+    private boolean reconnectPending = false;
+
+    private final Runnable reconnect = new Runnable() {
+        @Override
+        public void run() {
+            reconnectPending = false;
+            doReconnectGpsa();
+        }
+    };
+
     /**
      * Notification ID for "Google Play Services need upgrading or installing".
      */
@@ -72,6 +109,11 @@ implements LocationListener, Closeable
     @Nullable
     private Location cachedLocation;
 
+    /**
+     * Has {@link #cachedLocation} been dropped by {@link #trimMemory()} without being reloaded since?
+     */
+    private boolean cachedLocationTrimmed = false;
+
     /**
      * Updates widget when preferences change.
      */
@@ -81,6 +123,29 @@ implements LocationListener, Closeable
     @NotNull
     private final LocationClient locationClient;
 
+    /**
+     * Decides how often we want location updates.
+     */
+    @NotNull
+    private final LocationPolicy locationPolicy = new LocationPolicy();
+
+    /**
+     * How often we have asked for location updates, 0 if we haven't asked.
+     */
+    private long requestedIntervalMs = 0;
+
+    /**
+     * Tells us when positioning is enabled or disabled.
+     */
+    @NotNull
+    private final BroadcastReceiver providersChangedReceiver;
+
+    /**
+     * Network positioning status as of our latest check.
+     */
+    @NotNull
+    private ProviderStatus networkPositioningStatus;
+
     /**
      * Create a new update listener.
      *
@@ -90,9 +155,13 @@ implements LocationListener, Closeable
     public UpdateListener(@NotNull final WidgetManager widgetManager) {
         this.widgetManager = widgetManager;
 
+        // Makes getLocation() useful before we have connected, if we were restarted
+        cachedLocation = ServiceSnapshot.loadLocation(widgetManager, ServiceSnapshot.CACHED_LOCATION);
+
         locationClient = new LocationClient(widgetManager, new GooglePlayServicesClient.ConnectionCallbacks() {
             @Override
             public void onConnected(Bundle bundle) {
+                gpsaBackoff.onConnected(SystemClock.elapsedRealtime());
                 Log.i(TAG, "Connected, cancelling GPSA trouble / resolution notification");
                 NotificationManager notificationManager =
                         (NotificationManager)widgetManager.getSystemService(Context.NOTIFICATION_SERVICE);
@@ -107,6 +176,7 @@ implements LocationListener, Closeable
                 widgetManager.setStatus("Location service disconnected");
 
                 if (!closed) {
+                    gpsaBackoff.onDisconnected();
                     Log.w(TAG, "Disconnected but not shutting down, reconnecting...");
                     reconnectGpsa();
                 }
@@ -114,6 +184,7 @@ implements LocationListener, Closeable
         }, new GooglePlayServicesClient.OnConnectionFailedListener() {
             @Override
             public void onConnectionFailed(ConnectionResult connectionResult) {
+                gpsaBackoff.onFailure();
                 if (Util.isRunningOnEmulator()) {
                     Log.i(TAG, "Not resolving GPSA connectivity when running on emulator");
                 } else {
@@ -140,60 +211,64 @@ implements LocationListener, Closeable
         };
         widgetManager.getPreferences().registerOnSharedPreferenceChangeListener(preferenceChangeListener);
 
-        registerNetworkPositioningListener();
+        // Listen for enabling of the network location provider so that we can drop the "Click to enable network
+        // positioning" text after the user has done that
+        networkPositioningStatus = Util.getNetworkPositioningStatus(widgetManager);
+        providersChangedReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onProvidersChanged();
+            }
+        };
+        widgetManager.registerReceiver(providersChangedReceiver,
+                new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION));
     }
 
-    /**
-     * Listen for enabling of the network location provider so that we can drop the "Click to enable network
-     * positioning" text after the user has done that.
-     */
-    private void registerNetworkPositioningListener() {
-        LocationManager locationManager =
-                (LocationManager)widgetManager.getSystemService(Context.LOCATION_SERVICE);
-        if (locationManager.getProvider(LocationManager.NETWORK_PROVIDER) == null) {
-            Log.w(TAG, "Network provider not available on this device");
-            return;
-        }
+    private void onProvidersChanged() {
+        ProviderStatus previousStatus = networkPositioningStatus;
+        networkPositioningStatus = Util.getNetworkPositioningStatus(widgetManager);
+        Log.i(TAG, "Location providers changed, network positioning went from "
+                + previousStatus + " to " + networkPositioningStatus);
 
-        locationManager.requestLocationUpdates(
-                LocationManager.NETWORK_PROVIDER,
-                30 * 60 * 1000,
-                0,
-                new android.location.LocationListener() {
-                    @Override
-                    public void onLocationChanged(Location location) {
-                        // Intentionally ignored; we get this from the Google Play Services Location API because of
-                        // Android bug 57707
-                        Log.i(TAG, "Location provider location updated: " + location);
-                    }
-
-                    @Override
-                    public void onStatusChanged(String s, int i, Bundle bundle) {
-                        // Intentionally ignored; let the Google Play Services Location API deal with these events
-                        Log.i(TAG, "Location provider status changed: " + s + " " + i + " " + bundle);
-                    }
-
-                    @Override
-                    public void onProviderEnabled(String s) {
-                        Log.i(TAG, "Location provider enabled: " + s);
-
-                        // This will give us a new location and remove the "Click to enable network positioning" text
-                        reconnectGpsa();
-                    }
-
-                    @Override
-                    public void onProviderDisabled(String s) {
-                        // Intentionally ignored; requesting the user to enable network positioning is done from
-                        // getLocation() if needed
-                        Log.i(TAG, "Location provider disabled: " + s);
-                    }
-                });
+        if (networkPositioningStatus == ProviderStatus.ENABLED && previousStatus != ProviderStatus.ENABLED) {
+            // This will give us a new location and remove the "Click to enable network positioning" text
+            reconnectGpsa();
+        }
     }
 
     /**
      * Retry connecting to Google Play Services API; this can be useful to do after it has been upgraded on the device.
+     * <p>
+     * Requests arriving while we're already connecting or waiting to connect are dropped. After failures, we wait
+     * longer and longer before connecting again.
      */
     public void reconnectGpsa() {
+        if (closed) {
+            Log.d(TAG, "Closed, not reconnecting to GPSA");
+            return;
+        }
+        if (reconnectPending) {
+            Log.d(TAG, "GPSA reconnect already scheduled");
+            return;
+        }
+        if (gpsaBackoff.isConnecting(SystemClock.elapsedRealtime())) {
+            Log.d(TAG, "Already connecting to GPSA");
+            return;
+        }
+
+        long delay = gpsaBackoff.getDelay();
+        if (delay == 0) {
+            doReconnectGpsa();
+            return;
+        }
+
+        Log.i(TAG, "Reconnecting to GPSA in " + Util.msToTimeString(delay) + ", " + gpsaBackoff);
+        reconnectPending = true;
+        handler.postDelayed(reconnect, delay);
+    }
+
+    private void doReconnectGpsa() {
+        gpsaBackoff.onAttempt(SystemClock.elapsedRealtime());
         try {
             if (locationClient.isConnecting() || locationClient.isConnected()) {
                 locationClient.disconnect();
@@ -206,19 +281,22 @@ implements LocationListener, Closeable
         try {
             locationClient.connect();
         } catch (Exception e) {
-            Log.w(TAG, "Connecting to GPSA failed, retrying in 5...", e);
+            Log.w(TAG, "Connecting to GPSA failed", e);
             widgetManager.setStatus("Waiting for location service...");
 
-            Runnable reconnect = new Runnable() {
-                @Override
-                public void run() {
-                    reconnectGpsa();
-                }
-            };
-            handler.postDelayed(reconnect, 5000);
+            gpsaBackoff.onFailure();
+            reconnectGpsa();
         }
     }
 
+    /**
+     * Describe how our Google Play Services API connection attempts have been going.
+     */
+    @NotNull
+    public String describeGpsaConnects() {
+        return gpsaBackoff.toString();
+    }
+
     private void repairGpscConnection(ConnectionResult problem) {
         Log.e(TAG, "Failed connecting to location service: " + problem);
 
@@ -248,6 +326,8 @@ implements LocationListener, Closeable
      */
     @Nullable
     public Location getLocation() {
+        restoreCachedLocation();
+
         Location bestLocation;
 
         String locationClientStatus;
@@ -288,6 +368,9 @@ implements LocationListener, Closeable
         } else {
             bestLocation = lastKnownLocation;
         }
+        if (bestLocation != null && bestLocation != cachedLocation) {
+            ServiceSnapshot.saveLocation(widgetManager, ServiceSnapshot.CACHED_LOCATION, bestLocation);
+        }
         cachedLocation = bestLocation;
 
         if (bestLocation == null && Util.isRunningOnEmulator()) {
@@ -341,22 +424,57 @@ implements LocationListener, Closeable
     private void registerLocationListener(@NotNull WidgetManager widgetManager) {
         Log.d(TAG, "Registering location listener...");
 
+        if (!requestLocationUpdates(locationPolicy.getInterval())) {
+            return;
+        }
+
+        widgetManager.setStatus("Locating phone...", null);
+        Log.d(TAG, "Location listener registered");
+
+        // This will detect things like positioning services being disabled
+        getLocation();
+    }
+
+    /**
+     * Ask for location updates at a given interval, replacing any previous request.
+     *
+     * @return False if the request failed
+     */
+    private boolean requestLocationUpdates(long intervalMs) {
         LocationRequest locationRequest = new LocationRequest();
-        locationRequest.setInterval(41 * 60 * 1000);
+        locationRequest.setInterval(intervalMs);
         locationRequest.setPriority(LocationRequest.PRIORITY_LOW_POWER);
         try {
             locationClient.requestLocationUpdates(locationRequest, this);
         } catch (Exception e) {
             Log.e(TAG, "Requesting GPSA location updates failed, attempting reconnect", e);
             reconnectGpsa();
-            return;
+            return false;
         }
 
-        widgetManager.setStatus("Locating phone...", null);
-        Log.d(TAG, "Location listener registered");
+        requestedIntervalMs = intervalMs;
+        Log.d(TAG, "Requested location updates every " + Util.msToTimeString(intervalMs));
+        return true;
+    }
 
-        // This will detect things like positioning services being disabled
-        getLocation();
+    /**
+     * Adapt our location update interval to how fast we're moving.
+     */
+    private void adaptLocationInterval() {
+        long wantedIntervalMs = locationPolicy.getInterval();
+        if (!LocationPolicy.isWorthChanging(requestedIntervalMs, wantedIntervalMs)) {
+            return;
+        }
+        if (!locationClient.isConnected()) {
+            // We'll use the new interval when we get connected
+            return;
+        }
+
+        Log.i(TAG, String.format("Moving at %.1fm/s, location updates every %s rather than every %s",
+                locationPolicy.getSpeed(),
+                Util.msToTimeString(wantedIntervalMs),
+                Util.msToTimeString(requestedIntervalMs)));
+        requestLocationUpdates(wantedIntervalMs);
     }
 
     private String describePreference(@NotNull SharedPreferences preferences, String key) {
@@ -374,6 +492,25 @@ implements LocationListener, Closeable
         return value.toString();
     }
 
+    /**
+     * Drop our location caches, for when we're short on memory.
+     * <p>
+     * {@link #cachedLocation} is persisted and gets reloaded when next needed.
+     */
+    public void trimMemory() {
+        cachedLocation = null;
+        cachedLocationTrimmed = true;
+        locationPolicy.trimMemory();
+    }
+
+    private void restoreCachedLocation() {
+        if (!cachedLocationTrimmed) {
+            return;
+        }
+        cachedLocationTrimmed = false;
+        cachedLocation = ServiceSnapshot.loadLocation(widgetManager, ServiceSnapshot.CACHED_LOCATION);
+    }
+
     /**
      * Free up system resources and stop listening.
      */
@@ -383,9 +520,11 @@ implements LocationListener, Closeable
             throw new IllegalStateException("Already closed");
         }
         closed = true;
+        handler.removeCallbacks(reconnect);
 
         Log.d(TAG, "Deregistering preferences change listener...");
         widgetManager.getPreferences().unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+        widgetManager.unregisterReceiver(providersChangedReceiver);
         try {
             locationClient.disconnect();
         } catch (Exception e) {
@@ -403,34 +542,121 @@ implements LocationListener, Closeable
                 Math.round(location.getAccuracy()),
                 Util.minutesToTimeOldString((int)locationAgeMinutes)));
 
-        if (cachedLocation == null) {
-            cachedLocation = location;
-            widgetManager.updateMeasurement(UpdateReason.LOCATION_CHANGED);
-            return;
-        }
-
-        if (cachedLocation.getTime() > location.getTime()) {
+        restoreCachedLocation();
+        if (cachedLocation != null && cachedLocation.getTime() > location.getTime()) {
             long ageDifferenceSeconds = (cachedLocation.getTime() - location.getTime()) / 1000L;
             Log.i(TAG, String.format("Cached location is %ds newer than location update, ignoring location update",
                     ageDifferenceSeconds));
             return;
         }
 
-        try {
-            int cachedLocationAgeMinutes =
-                    (int)((System.currentTimeMillis() - cachedLocation.getTime())
-                            / (1000L * 60L));
-
-            if (cachedLocationAgeMinutes < 10 && widgetManager.hasWeather()) {
-                Log.i(TAG, String.format("Not updating widget; old location %s",
-                        Util.minutesToTimeOldString(cachedLocationAgeMinutes)));
-                return;
-            }
-        } finally {
-            cachedLocation = location;
+        cachedLocation = location;
+        ServiceSnapshot.saveLocation(widgetManager, ServiceSnapshot.CACHED_LOCATION, location);
+
+        Location fetchedLocation = widgetManager.getFetchedLocation();
+        if (fetchedLocation != null) {
+            locationPolicy.setMoveMeters(getMoveMeters(fetchedLocation, widgetManager.getWeather()));
+        }
+        locationPolicy.onFix(location);
+        adaptLocationInterval();
+
+        if (!isWorthFetchingFor(location, widgetManager.getFetchedLocation(), widgetManager.getWeather())) {
+            return;
         }
 
         // Take a new measurement at our new location
-        widgetManager.updateMeasurement(UpdateReason.LOCATION_CHANGED);
+        widgetManager.requestUpdate(UpdateReason.LOCATION_CHANGED);
+    }
+
+    /**
+     * Is a new location worth fetching new weather for?
+     *
+     * @param location Where we are now
+     * @param fetchedLocation Where we last fetched the weather, or null if we haven't
+     * @param weather The weather we're showing, or null if we have none
+     */
+    static boolean isWorthFetchingFor(
+            @NotNull Location location,
+            @Nullable Location fetchedLocation,
+            @Nullable Weather weather)
+    {
+        if (weather == null || fetchedLocation == null) {
+            // Nothing to compare with, go get something to show
+            return true;
+        }
+
+        float distanceMeters = fetchedLocation.distanceTo(location);
+
+        // Accuracy is 0 for locations without one
+        float uncertaintyMeters = fetchedLocation.getAccuracy() + location.getAccuracy();
+        float moveMeters = getMoveMeters(fetchedLocation, weather);
+        if (!shouldRefetch(distanceMeters, uncertaintyMeters, moveMeters, weather.getAgeMinutes())) {
+            Log.i(TAG, String.format("Moved %dm±%dm from where we last fetched, need %dm for refetching",
+                    Math.round(distanceMeters), Math.round(uncertaintyMeters), Math.round(moveMeters)));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * How far do we need to move from where we fetched some weather to get weather from another station?
+     *
+     * @param fetchedLocation Where we fetched the weather
+     * @param weather The weather we got there, or null if we got none
+     *
+     * @return A distance in meters
+     */
+    static float getMoveMeters(@NotNull Location fetchedLocation, @Nullable Weather weather) {
+        if (weather == null
+                || Double.isNaN(weather.getStationLatitude())
+                || Double.isNaN(weather.getStationLongitude()))
+        {
+            return DEFAULT_MOVE_METERS;
+        }
+
+        float[] results = new float[1];
+        Location.distanceBetween(
+                fetchedLocation.getLatitude(), fetchedLocation.getLongitude(),
+                weather.getStationLatitude(), weather.getStationLongitude(),
+                results);
+        return computeMoveMeters(results[0]);
+    }
+
+    /**
+     * How far do we need to move to get weather from another station?
+     * <p>
+     * We always get weather from the station nearest to where we fetched. That station being some distance away
+     * means there's no station closer than that, so stations around here are about twice that distance apart. We
+     * won't get closer to another station than to this one until we have moved about that distance.
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param stationDistanceMeters How far from the weather station we were when we fetched
+     */
+    static float computeMoveMeters(float stationDistanceMeters) {
+        return Math.max(MIN_MOVE_METERS, Math.min(MAX_MOVE_METERS, stationDistanceMeters));
+    }
+
+    /**
+     * Is a location update worth fetching new weather for?
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param distanceMeters How far we are from where we last fetched the weather
+     * @param uncertaintyMeters How much of that distance could be positioning errors
+     * @param moveMeters How far we need to move to get weather from another station, see
+     * {@link #getMoveMeters(Location, Weather)}
+     * @param weatherAgeMinutes How old the weather we're showing is
+     */
+    static boolean shouldRefetch(
+            float distanceMeters, float uncertaintyMeters, float moveMeters, int weatherAgeMinutes)
+    {
+        if (weatherAgeMinutes > WeatherPresenter.MAX_WEATHER_AGE_MINUTES) {
+            return true;
+        }
+
+        // Only count what we're sure we've moved
+        return distanceMeters - uncertaintyMeters > moveMeters;
     }
 }
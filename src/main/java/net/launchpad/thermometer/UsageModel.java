@@ -0,0 +1,269 @@
+package net.launchpad.thermometer;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Learns when the user usually looks at the phone, so that we can fetch the weather just before.
+ * <p>
+ * Each time the screen comes on we count one look in a histogram over hour of day and day of week. Hours where the
+ * user has looked at least {@link Histogram#LIKELY_LOOKS} times are hours we expect the user to look again.
+ */
+class UsageModel {
+    /**
+     * Where we store the model, in {@link android.content.Context#getSharedPreferences(String, int)}.
+     */
+    static final String PREFERENCES_NAME = "usage-model";
+
+    /**
+     * How long before an expected look do we fetch?
+     */
+    static final long PREFETCH_LEAD_MS = 10 * 60 * 1000L;
+
+    /**
+     * Screen-ons closer together than this are one look.
+     */
+    static final long LOOK_SESSION_MS = 15 * 60 * 1000L;
+
+    private static final String HISTOGRAM_KEY = "histogram";
+    private static final String LAST_LOOK_KEY = "lastLook";
+    private static final String DECISION_COUNT_PREFIX = "decisions:";
+
+    /**
+     * Fetch decisions made based on this model.
+     */
+    enum Decision {
+        /**
+         * The screen was off, but we fetched since the user is expected to look soon.
+         */
+        PREFETCHED,
+
+        /**
+         * The screen was off, and we put off fetching until just before the user is expected to look.
+         */
+        DEFERRED_TO_LOOK,
+
+        /**
+         * The screen was off, and we put off fetching until just before our weather gets too old to show.
+         */
+        DEFERRED_TO_EXPIRY
+    }
+
+    /**
+     * How many looks the user has taken, per hour of the week.
+     */
+    static class Histogram {
+        static final int HOURS_PER_WEEK = 7 * 24;
+
+        /**
+         * An hour with at least this many looks is one where we expect the user to look.
+         */
+        static final int LIKELY_LOOKS = 3;
+
+        /**
+         * When any hour gets this many looks, all hours are halved. This makes old habits fade away, and keeps the
+         * counts small.
+         */
+        private static final int MAX_LOOKS = 32;
+
+        private static final String[] DAY_NAMES = { "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat" };
+
+        @NotNull
+        private final int[] looks = new int[HOURS_PER_WEEK];
+
+        private static int getHourOfWeek(@NotNull Calendar time) {
+            return (time.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24 + time.get(Calendar.HOUR_OF_DAY);
+        }
+
+        /**
+         * The user looked at the phone.
+         */
+        void record(@NotNull Calendar time) {
+            int hour = getHourOfWeek(time);
+            looks[hour]++;
+            if (looks[hour] < MAX_LOOKS) {
+                return;
+            }
+
+            for (int i = 0; i < looks.length; i++) {
+                looks[i] /= 2;
+            }
+        }
+
+        /**
+         * When do we expect the user to look next?
+         *
+         * @param now The current time, not modified
+         *
+         * @return A {@link System#currentTimeMillis()} time; now if we expect the user to look during the current
+         * hour, or the start of the next hour we expect the user to look in. 0 if we don't expect the user to look
+         * within a week.
+         */
+        long predictNextLook(@NotNull Calendar now) {
+            if (looks[getHourOfWeek(now)] >= LIKELY_LOOKS) {
+                return now.getTimeInMillis();
+            }
+
+            Calendar hour = (Calendar)now.clone();
+            hour.set(Calendar.MINUTE, 0);
+            hour.set(Calendar.SECOND, 0);
+            hour.set(Calendar.MILLISECOND, 0);
+            for (int i = 1; i < HOURS_PER_WEEK; i++) {
+                hour.add(Calendar.HOUR_OF_DAY, 1);
+                if (looks[getHourOfWeek(hour)] >= LIKELY_LOOKS) {
+                    return hour.getTimeInMillis();
+                }
+            }
+            return 0;
+        }
+
+        @NotNull
+        String format() {
+            StringBuilder returnMe = new StringBuilder();
+            for (int i = 0; i < looks.length; i++) {
+                if (i > 0) {
+                    returnMe.append(',');
+                }
+                returnMe.append(looks[i]);
+            }
+            return returnMe.toString();
+        }
+
+        /**
+         * Parse a string created by {@link #format()}.
+         *
+         * @return A histogram, or null if the string couldn't be parsed
+         */
+        @Nullable
+        static Histogram parse(@NotNull String formatted) {
+            String[] parts = formatted.split(",", -1);
+            if (parts.length != HOURS_PER_WEEK) {
+                return null;
+            }
+
+            Histogram histogram = new Histogram();
+            try {
+                for (int i = 0; i < parts.length; i++) {
+                    histogram.looks[i] = Integer.parseInt(parts[i]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            return histogram;
+        }
+
+        /**
+         * List the hours we expect the user to look in, like "Mon 07, Mon 08, Tue 07".
+         */
+        @Override
+        public String toString() {
+            StringBuilder returnMe = new StringBuilder();
+            for (int i = 0; i < looks.length; i++) {
+                if (looks[i] < LIKELY_LOOKS) {
+                    continue;
+                }
+                if (returnMe.length() > 0) {
+                    returnMe.append(", ");
+                }
+                returnMe.append(String.format("%s %02d", DAY_NAMES[i / 24], i % 24));
+            }
+            if (returnMe.length() == 0) {
+                return "none yet";
+            }
+            return returnMe.toString();
+        }
+    }
+
+    @NotNull
+    private final SharedPreferences preferences;
+
+    @NotNull
+    private final Histogram histogram;
+
+    /**
+     * When the user last looked, in {@link System#currentTimeMillis()} time.
+     */
+    private long lastLook;
+
+    /**
+     * @param preferences Where we store the model
+     */
+    UsageModel(@NotNull SharedPreferences preferences) {
+        this.preferences = preferences;
+
+        Histogram loaded = null;
+        String formatted = preferences.getString(HISTOGRAM_KEY, null);
+        if (formatted != null) {
+            loaded = Histogram.parse(formatted);
+            if (loaded == null) {
+                Log.w(TAG, "Dropping unparsable usage histogram: <" + formatted + ">");
+            }
+        }
+        histogram = loaded != null ? loaded : new Histogram();
+        lastLook = preferences.getLong(LAST_LOOK_KEY, 0);
+    }
+
+    /**
+     * The screen came on or the user unlocked the phone.
+     */
+    synchronized void onLook() {
+        long now = System.currentTimeMillis();
+        if (now - lastLook < LOOK_SESSION_MS && now >= lastLook) {
+            // Same look as last time
+            return;
+        }
+        lastLook = now;
+
+        histogram.record(new GregorianCalendar());
+        preferences.edit()
+                .putString(HISTOGRAM_KEY, histogram.format())
+                .putLong(LAST_LOOK_KEY, lastLook)
+                .apply();
+    }
+
+    /**
+     * When should we fetch to have fresh weather for the user's next look?
+     *
+     * @return A {@link System#currentTimeMillis()} time, or 0 if we don't know when the user will look next
+     */
+    synchronized long getPrefetchTime() {
+        long nextLook = histogram.predictNextLook(new GregorianCalendar());
+        if (nextLook == 0) {
+            return 0;
+        }
+        return nextLook - PREFETCH_LEAD_MS;
+    }
+
+    /**
+     * Count a fetch decision, for {@link #toString()}.
+     */
+    synchronized void onDecision(@NotNull Decision decision) {
+        String key = DECISION_COUNT_PREFIX + decision.name();
+        preferences.edit().putInt(key, preferences.getInt(key, 0) + 1).apply();
+    }
+
+    /**
+     * Describe when we expect the user to look and what we have decided based on that.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder returnMe = new StringBuilder();
+        returnMe.append("Expected looks: ").append(histogram);
+        returnMe.append("\nFetch decisions while the screen was off: ");
+        for (Decision decision : Decision.values()) {
+            if (decision.ordinal() > 0) {
+                returnMe.append(", ");
+            }
+            returnMe.append(decision).append('=');
+            returnMe.append(preferences.getInt(DECISION_COUNT_PREFIX + decision.name(), 0));
+        }
+        return returnMe.toString();
+    }
+}
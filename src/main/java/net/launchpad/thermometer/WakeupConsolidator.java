@@ -0,0 +1,183 @@
+package net.launchpad.thermometer;
+
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import net.launchpad.thermometer.WidgetManager.UpdateReason;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumSet;
+
+/**
+ * Merges wakeup triggers arriving close together into a single work cycle.
+ * <p>
+ * We get woken up by our fetch alarm, by connectivity changes, by location updates and by package changes, and those
+ * tend to come in bursts. The first trigger opens a {@link #WINDOW_MS} long window, and every trigger arriving before
+ * the window closes is handled by the same work cycle.
+ * <p>
+ * Triggers the user is waiting for, like a widget being added, don't wait for the window. They close any open window
+ * right away and get handled together with whatever it had collected.
+ * <p>
+ * The handler's clock stops while the device is asleep, so a partial wake lock is held while a window is open. Without
+ * it, work triggered by an alarm or a broadcast could be put off until some later, unrelated wakeup.
+ */
+class WakeupConsolidator {
+    /**
+     * How long do we wait for more triggers before doing any work?
+     */
+    static final long WINDOW_MS = 2000;
+
+    /**
+     * Upper bound on how long we hold our wake lock, in case the work cycle never happens.
+     */
+    private static final long WAKE_LOCK_TIMEOUT_MS = 10 * WINDOW_MS;
+
+    /**
+     * Triggers that are handled right away rather than waiting for the window to close.
+     */
+    private static final EnumSet<UpdateReason> IMMEDIATE =
+            EnumSet.of(UpdateReason.DISPLAY_OR_TIMER, UpdateReason.PRESENTATION_TIMER);
+
+    /**
+     * Does the actual work.
+     */
+    interface Worker {
+        /**
+         * Called on the handler's thread once per window.
+         *
+         * @param reasons Why we were woken up, never empty
+         */
+        void doWork(@NotNull EnumSet<UpdateReason> reasons);
+    }
+
+    @NotNull
+    private final Handler handler;
+
+    @NotNull
+    private final Worker worker;
+
+    /**
+     * Held while a window is open, null for not keeping the device awake.
+     */
+    @Nullable
+    private final PowerManager.WakeLock wakeLock;
+
+    /**
+     * Triggers collected in the currently open window, or null if no window is open.
+     */
+    private EnumSet<UpdateReason> pending;
+
+    private int triggerCount = 0;
+    private int wakeupCount = 0;
+
+    /**
+     * When we started counting, in {@link SystemClock#elapsedRealtime()} time.
+     */
+    private final long startTimestamp = SystemClock.elapsedRealtime();
+
+    private final Runnable closeWindow = new Runnable() {
+        @Override
+        public void run() {
+            EnumSet<UpdateReason> reasons;
+            synchronized (WakeupConsolidator.this) {
+                reasons = pending;
+                pending = null;
+                if (reasons == null) {
+                    return;
+                }
+                wakeupCount++;
+            }
+
+            try {
+                worker.doWork(reasons);
+            } finally {
+                synchronized (WakeupConsolidator.this) {
+                    // A trigger arriving while we worked has opened a new window that needs the lock
+                    if (pending == null) {
+                        releaseWakeLock();
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @param handler The work will be done on this handler's thread
+     * @param wakeLock A partial wake lock to hold while a window is open, or null for not keeping the device awake.
+     * Must not be reference counted.
+     */
+    WakeupConsolidator(@NotNull Handler handler, @Nullable PowerManager.WakeLock wakeLock, @NotNull Worker worker) {
+        this.handler = handler;
+        this.wakeLock = wakeLock;
+        this.worker = worker;
+    }
+
+    /**
+     * Something wants us to wake up. Can be called from any thread.
+     */
+    void trigger(@NotNull UpdateReason why) {
+        boolean immediate = IMMEDIATE.contains(why);
+        synchronized (this) {
+            triggerCount++;
+            if (pending != null) {
+                pending.add(why);
+                if (!immediate) {
+                    return;
+                }
+            } else {
+                pending = EnumSet.of(why);
+                if (wakeLock != null) {
+                    wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+                }
+            }
+        }
+
+        if (immediate) {
+            // Close the window now rather than when it would have closed
+            handler.removeCallbacks(closeWindow);
+            handler.post(closeWindow);
+        } else {
+            handler.postDelayed(closeWindow, WINDOW_MS);
+        }
+    }
+
+    /**
+     * Drop any triggers we haven't acted on yet.
+     */
+    void cancel() {
+        synchronized (this) {
+            pending = null;
+            releaseWakeLock();
+        }
+        handler.removeCallbacks(closeWindow);
+    }
+
+    private void releaseWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+    }
+
+    /**
+     * How many times have we been triggered?
+     */
+    synchronized int getTriggerCount() {
+        return triggerCount;
+    }
+
+    /**
+     * How many work cycles have we run? Since triggers are merged, this is at most {@link #getTriggerCount()}.
+     */
+    synchronized int getWakeupCount() {
+        return wakeupCount;
+    }
+
+    /**
+     * How many work cycles per hour have we been running on average?
+     */
+    synchronized double getWakeupsPerHour() {
+        long dtMs = Math.max(SystemClock.elapsedRealtime() - startTimestamp, 60 * 60 * 1000L);
+        return wakeupCount * (60 * 60 * 1000.0) / dtMs;
+    }
+}
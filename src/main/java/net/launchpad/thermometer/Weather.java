@@ -27,11 +27,53 @@ public class Weather {
     private static final SimpleDateFormat FORMATTER =
             new SimpleDateFormat("yyyy MMM dd hh:mm zz", Locale.ENGLISH);
 
+    /**
+     * Temperatures we present, all derived from the same observation.
+     */
+    enum Metric {
+        /**
+         * The measured temperature.
+         */
+        TEMPERATURE,
+
+        /**
+         * North American wind chill. Same as {@link #TEMPERATURE} when it's too warm or calm for wind chill.
+         */
+        WIND_CHILL,
+
+        /**
+         * US heat index. Same as {@link #TEMPERATURE} when it's too cool or dry for a heat index, or when we don't
+         * know the humidity.
+         */
+        HEAT_INDEX,
+
+        /**
+         * Canadian humidex. Same as {@link #TEMPERATURE} when it's too cool for humidex, or when we don't know the
+         * humidity.
+         */
+        HUMIDEX
+    }
+
     /**
      * The temperature in Celsius.
      */
     private final double centigrades;
 
+    /**
+     * The relative humidity in percent, or NaN if unknown.
+     */
+    private final double humidityPercent;
+
+    /**
+     * All {@link Metric}s in Celsius and Fahrenheit, exact and rounded, indexed by {@link Metric#ordinal()}.
+     * <p>
+     * Computed once when the observation is parsed, so that presenting it is just lookups.
+     */
+    private final double[] exactCentigrades = new double[Metric.values().length];
+    private final double[] exactFahrenheit = new double[Metric.values().length];
+    private final int[] roundedCentigrades = new int[Metric.values().length];
+    private final int[] roundedFahrenheit = new int[Metric.values().length];
+
     /**
      * The wind speed in knots.
      */
@@ -43,6 +85,12 @@ public class Weather {
     @Nullable
     private final String stationName;
 
+    /**
+     * Where the weather station is, NaN if unknown.
+     */
+    private final double stationLatitude;
+    private final double stationLongitude;
+
     /**
      * When this weather was observed.
      */
@@ -97,6 +145,15 @@ public class Weather {
                 stationName = null;
             }
 
+            if (weatherObservation.has("coord")) {
+                JSONObject coordinates = weatherObservation.getJSONObject("coord");
+                stationLatitude = coordinates.getDouble("lat");
+                stationLongitude = coordinates.getDouble("lon");
+            } else {
+                stationLatitude = Double.NaN;
+                stationLongitude = Double.NaN;
+            }
+
             String fromStation = "";
             if (stationName != null) {
                 fromStation = " from " + stationName;
@@ -119,6 +176,12 @@ public class Weather {
                         fromStation), e);
             }
 
+            if (observationMain.has("humidity")) {
+                humidityPercent = observationMain.getDouble("humidity");
+            } else {
+                humidityPercent = Double.NaN;
+            }
+
             if (weatherObservation.has("wind")) {
                 JSONObject windObservation = weatherObservation.getJSONObject("wind");
                 double windSpeedMps = windObservation.getDouble("speed");
@@ -133,28 +196,45 @@ public class Weather {
             Log.e(TAG, "Parsing weather data failed:\n" + weatherObservation, e);
             throw new IllegalArgumentException("Error parsing weather data", e);
         }
+
+        computeMetrics();
+    }
+
+    /**
+     * Fill in the metric tables from what we have observed.
+     */
+    private void computeMetrics() {
+        setMetric(Metric.TEMPERATURE, centigrades);
+        setMetric(Metric.WIND_CHILL, computeWindChill(centigrades, 1.85 * windKnots));
+        setMetric(Metric.HEAT_INDEX, computeHeatIndex(centigrades, humidityPercent));
+        setMetric(Metric.HUMIDEX, computeHumidex(centigrades, humidityPercent));
+    }
+
+    private void setMetric(@NotNull Metric metric, double metricCentigrades) {
+        int index = metric.ordinal();
+        exactCentigrades[index] = metricCentigrades;
+        exactFahrenheit[index] = metricCentigrades * 9.0 / 5.0 + 32.0;
+        roundedCentigrades[index] = (int)Math.round(exactCentigrades[index]);
+        roundedFahrenheit[index] = (int)Math.round(exactFahrenheit[index]);
     }
 
     /**
      * Compute a wind chilled number of centigrades.
+     * <p>
+     * Has default protection for testing purposes.
      *
      * @return The wind chilled number of centigrades.
      *
      * @see "http://en.wikipedia.org/wiki/Wind_chill#North_American_wind_chill_index"
      */
-    @SuppressWarnings("StringConcatenationMissingWhitespace")
-    private double getWindChilledCentigrades() {
-        double windKmh = 1.85 * windKnots;
-
+    static double computeWindChill(double centigrades, double windKmh) {
         if (centigrades > 10.0) {
-            Log.d(TAG, "Not computing wind chill over 10C: "
-                + Math.round(centigrades) + "C");
+            // Wind chill isn't defined over 10C
             return centigrades;
         }
 
         if (windKmh < 4.8) {
-            Log.d(TAG, "Not computing wind chill under 4.8km/h: "
-                + Math.round(windKmh) + "km/h");
+            // Wind chill isn't defined under 4.8km/h
             return centigrades;
         }
 
@@ -168,6 +248,64 @@ public class Weather {
         return adjustedCentigrades;
     }
 
+    /**
+     * Compute the heat index using the Rothfusz regression. Below 80F or 40% relative humidity the regression isn't
+     * valid, and we return the temperature as is.
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param humidityPercent Relative humidity, or NaN if unknown
+     *
+     * @return The heat index in centigrades.
+     *
+     * @see "http://en.wikipedia.org/wiki/Heat_index#Formula"
+     */
+    static double computeHeatIndex(double centigrades, double humidityPercent) {
+        double t = centigrades * 9.0 / 5.0 + 32.0;
+        double r = humidityPercent;
+        if (Double.isNaN(r) || t < 80.0 || r < 40.0) {
+            return centigrades;
+        }
+
+        double fahrenheit =
+            -42.379
+            + 2.04901523 * t
+            + 10.14333127 * r
+            - 0.22475541 * t * r
+            - 0.00683783 * t * t
+            - 0.05481717 * r * r
+            + 0.00122874 * t * t * r
+            + 0.00085282 * t * r * r
+            - 0.00000199 * t * t * r * r;
+
+        return (fahrenheit - 32.0) * 5.0 / 9.0;
+    }
+
+    /**
+     * Compute the humidex. Below 20C humidex isn't used, and we return the temperature as is.
+     * <p>
+     * Has default protection for testing purposes.
+     *
+     * @param humidityPercent Relative humidity, or NaN if unknown
+     *
+     * @return The humidex in centigrades.
+     *
+     * @see "http://en.wikipedia.org/wiki/Humidex#Computation_formula"
+     */
+    static double computeHumidex(double centigrades, double humidityPercent) {
+        if (Double.isNaN(humidityPercent) || centigrades < 20.0) {
+            return centigrades;
+        }
+
+        // Vapor pressure in hPa, from the saturation vapor pressure and the relative humidity
+        double vaporPressure =
+            6.112 * Math.pow(10, 7.5 * centigrades / (237.7 + centigrades)) * humidityPercent / 100.0;
+        double humidex = centigrades + 0.5555 * (vaporPressure - 10.0);
+
+        // Dry air doesn't make it feel colder
+        return Math.max(centigrades, humidex);
+    }
+
     /**
      * Get the temperature in Celsius.
      *
@@ -177,11 +315,7 @@ public class Weather {
      * @return The temperature in celsius.
      */
     public int getCentigrades(boolean correctForWindChill) {
-        if (!correctForWindChill) {
-            return (int)Math.round(centigrades);
-        }
-
-        return (int)Math.round(getWindChilledCentigrades());
+        return getCentigrades(correctForWindChill ? Metric.WIND_CHILL : Metric.TEMPERATURE);
     }
 
     /**
@@ -193,14 +327,35 @@ public class Weather {
      * @return The temperature in fahrenheit.
      */
     public int getFahrenheit(boolean correctForWindChill) {
-        double convertMe = centigrades;
+        return getFahrenheit(correctForWindChill ? Metric.WIND_CHILL : Metric.TEMPERATURE);
+    }
 
-        if (correctForWindChill) {
-            convertMe = getWindChilledCentigrades();
-        }
+    /**
+     * Get a metric in Celsius, rounded to whole degrees.
+     */
+    int getCentigrades(@NotNull Metric metric) {
+        return roundedCentigrades[metric.ordinal()];
+    }
 
-        double fahrenheit = convertMe * 9.0 / 5.0 + 32.0;
-        return (int)Math.round(fahrenheit);
+    /**
+     * Get a metric in Fahrenheit, rounded to whole degrees.
+     */
+    int getFahrenheit(@NotNull Metric metric) {
+        return roundedFahrenheit[metric.ordinal()];
+    }
+
+    /**
+     * Like {@link #getCentigrades(Metric)}, but without rounding.
+     */
+    double getExactCentigrades(@NotNull Metric metric) {
+        return exactCentigrades[metric.ordinal()];
+    }
+
+    /**
+     * Like {@link #getFahrenheit(Metric)}, but without rounding.
+     */
+    double getExactFahrenheit(@NotNull Metric metric) {
+        return exactFahrenheit[metric.ordinal()];
     }
 
     /**
@@ -214,6 +369,20 @@ public class Weather {
         return stationName;
     }
 
+    /**
+     * @return The latitude of the weather station, or NaN if unknown
+     */
+    double getStationLatitude() {
+        return stationLatitude;
+    }
+
+    /**
+     * @return The longitude of the weather station, or NaN if unknown
+     */
+    double getStationLongitude() {
+        return stationLongitude;
+    }
+
     @Override
     public String toString() {
         String timeString;
@@ -222,8 +391,8 @@ public class Weather {
         } else {
             timeString = "<null>";
         }
-        return String.format(Locale.ENGLISH, "%.1fC, %.1fkts at %s on %s",
-            centigrades, windKnots, stationName, timeString);
+        return String.format(Locale.ENGLISH, "%.1fC, %.1fkts, %.0f%% humidity at %s on %s",
+            centigrades, windKnots, humidityPercent, stationName, timeString);
     }
 
     /**
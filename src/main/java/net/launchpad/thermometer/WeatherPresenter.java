@@ -5,13 +5,10 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
+import android.graphics.Point;
 import android.graphics.Typeface;
-import android.text.Layout;
-import android.text.StaticLayout;
-import android.text.TextPaint;
+import android.os.Build;
 import android.util.Log;
-import android.widget.RemoteViews;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -23,7 +20,145 @@ public class WeatherPresenter {
     /**
      * We don't want to show weather observations older than this.
      */
-    private static final int MAX_WEATHER_AGE_MINUTES = 150;
+    static final int MAX_WEATHER_AGE_MINUTES = 150;
+
+    /**
+     * Keeps the presented temperature from flapping when it hovers around a rounding boundary.
+     * <p>
+     * A shown temperature is kept until the real value is more than half a degree plus {@link #getBand()} away from
+     * it. Likewise, a temperature has to be wind chilled across freezing by an extra band to start being shown as
+     * such, and stops being shown as such only when it's a band on the other side. The unchilled temperature is
+     * stabilized the same way, and the temperature is marked as wind chilled only when the two presented values
+     * differ. Every such change costs a render and a widget update.
+     * <p>
+     * The same stabilizer should be passed to all presenters for the same widgets. It is not thread safe.
+     */
+    static class Stabilizer {
+        /**
+         * In degrees of whatever unit we're presenting.
+         */
+        static final double DEFAULT_BAND = 0.3;
+
+        private double band;
+
+        private boolean hasShown = false;
+        private boolean shownCelsius;
+        private boolean shownWithWindChill;
+        private int shownDegrees;
+        private int shownUnchilledDegrees;
+        private boolean shownAcrossFreezing;
+
+        private double lastDegrees = Double.NaN;
+        private double lastUnchilledDegrees = Double.NaN;
+
+        /**
+         * Written from one thread only.
+         */
+        private volatile int heldBackCount = 0;
+
+        /**
+         * @param band In degrees of whatever unit we're presenting, 0 means plain rounding
+         */
+        Stabilizer(double band) {
+            this.band = band;
+        }
+
+        double getBand() {
+            return band;
+        }
+
+        void setBand(double band) {
+            this.band = band;
+        }
+
+        /**
+         * Decide what to present for a new temperature.
+         *
+         * @param degrees The temperature to present, possibly wind chilled
+         * @param unchilledDegrees The temperature without any wind chill
+         * @param freezingPoint The freezing point in the unit we're presenting
+         */
+        void update(boolean celsius, boolean withWindChill,
+                    double degrees, double unchilledDegrees, int freezingPoint)
+        {
+            int plainDegrees = (int)Math.round(degrees);
+            int plainUnchilledDegrees = (int)Math.round(unchilledDegrees);
+            boolean plainAcrossFreezing = isAcrossFreezing(degrees, unchilledDegrees, freezingPoint, 0);
+
+            boolean changed = degrees != lastDegrees || unchilledDegrees != lastUnchilledDegrees;
+            lastDegrees = degrees;
+            lastUnchilledDegrees = unchilledDegrees;
+
+            if (!hasShown || celsius != shownCelsius || withWindChill != shownWithWindChill) {
+                // Nothing to be stable with
+                hasShown = true;
+                shownCelsius = celsius;
+                shownWithWindChill = withWindChill;
+                shownDegrees = plainDegrees;
+                shownUnchilledDegrees = plainUnchilledDegrees;
+                shownAcrossFreezing = plainAcrossFreezing;
+                return;
+            }
+
+            if (Math.abs(degrees - shownDegrees) >= 0.5 + band) {
+                shownDegrees = plainDegrees;
+            }
+            if (Math.abs(unchilledDegrees - shownUnchilledDegrees) >= 0.5 + band) {
+                shownUnchilledDegrees = plainUnchilledDegrees;
+            }
+            shownAcrossFreezing =
+                    isAcrossFreezing(degrees, unchilledDegrees, freezingPoint, shownAcrossFreezing ? -band : band);
+
+            boolean plainWindChilled = plainDegrees != plainUnchilledDegrees;
+            if (changed && (shownDegrees != plainDegrees
+                    || shownAcrossFreezing != plainAcrossFreezing
+                    || isWindChilled() != plainWindChilled))
+            {
+                heldBackCount++;
+            }
+        }
+
+        /**
+         * Like the presenter's plain rounding check, but requiring both temperatures to be a margin further from
+         * freezing. A negative margin lets them be that much closer instead.
+         */
+        private static boolean isAcrossFreezing(double degrees, double unchilledDegrees, int freezingPoint,
+                                                double margin)
+        {
+            return Math.round(unchilledDegrees - margin) > freezingPoint
+                    && Math.round(degrees + margin) < freezingPoint;
+        }
+
+        /**
+         * The temperature to present, as of the latest {@link #update(boolean, boolean, double, double, int)}.
+         */
+        int getDegrees() {
+            return shownDegrees;
+        }
+
+        /**
+         * Should the temperature be marked as wind chilled? True when the presented temperature differs from the
+         * presented unchilled one.
+         */
+        boolean isWindChilled() {
+            return shownDegrees != shownUnchilledDegrees;
+        }
+
+        /**
+         * Should the temperature be presented as wind chilled across freezing?
+         */
+        boolean isAcrossFreezing() {
+            return shownAcrossFreezing;
+        }
+
+        /**
+         * How many times has plain rounding wanted to change the presentation, but we held it back? Each of those is
+         * a render and a widget update saved.
+         */
+        int getHeldBackCount() {
+            return heldBackCount;
+        }
+    }
 
     private boolean dirty = true;
     private @NotNull String temperatureString;
@@ -38,6 +173,9 @@ public class WeatherPresenter {
     private boolean withWindChill = false;
     private boolean forceShowExcuse = false;
 
+    @Nullable
+    private Stabilizer stabilizer;
+
     /**
      * @param weather The weather to present
      * @param excuse An excuse to use if we can't present any weather
@@ -101,19 +239,23 @@ public class WeatherPresenter {
     }
 
     /**
-     * Create a RemoteViews instance with the temperature string and the subtext string.
+     * @param stabilizer Used for keeping the temperature from flapping between renders, null for plain rounding
+     */
+    void setStabilizer(@Nullable Stabilizer stabilizer) {
+        this.stabilizer = stabilizer;
+        dirty = true;
+    }
+
+    /**
+     * Present the temperature string and the subtext string.
      *
-     * @param color The text color to use for the RemoteViews
+     * @param color The text color to use
+     * @param widgetSize The size in pixels of all our widgets, or null if it's unknown or differs between widgets
      *
      * @return A rendering of the temperature string and the subtext string.
      */
     @NotNull
-    public RemoteViews createRemoteViews(Context context, int color) {
-        // FIXME: Refactor this method to be readable
-        RemoteViews remoteViews =
-                new RemoteViews(ThermometerWidget.class.getPackage().getName(),
-                        R.layout.widget_main);
-
+    public WidgetContent createWidgetContent(Context context, int color, @Nullable Point widgetSize) {
         final int screenWidth = context.getResources().getDisplayMetrics().widthPixels;
 
         // The WIDTH needs to be at least as wide as the widget, but I don't know how to get the widget width
@@ -122,153 +264,148 @@ public class WeatherPresenter {
         final int WIDTH = screenWidth / 4;
         //noinspection SuspiciousNameCombination,UnnecessaryLocalVariable
         final int HEIGHT = WIDTH;
-        final float SUBTEXT_LINE_HEIGHT = HEIGHT / 6f;
-        final float TEMPERATURE_SUBTEXT_SEPARATION = SUBTEXT_LINE_HEIGHT * 0.3f;
-        StaticLayout subtextLayout = getSubtextLayout(WIDTH, SUBTEXT_LINE_HEIGHT, color);
-        final float TEMPERATURE_HEIGHT = computeMaxTemperatureHeight(HEIGHT, subtextLayout.getHeight());
+
+        // The temperature is never bigger than an app icon, render glyph atlases at that size so we only ever scale
+        // down
+        final int ATLAS_TEXT_SIZE = Math.round(HEIGHT * 0.6f);
+
+        Log.d(TAG, "Displaying temperature: <" + getTemperatureString() + ">");
+
+        if (widgetSize != null && canPresentAsText()) {
+            // This makes widget updates a few hundred bytes rather than tens of kilobytes
+            WidgetContent text = createTextContent(widgetSize, ATLAS_TEXT_SIZE, color);
+            if (text != null) {
+                return text;
+            }
+        }
+
+        WidgetLayout layout = createLayout(WIDTH, HEIGHT);
+        layout.layout(new AndroidTextMeasurer(ATLAS_TEXT_SIZE));
+        Log.d(TAG, String.format("Displaying %d/%d lines of subtext: <%s>",
+                layout.getSubtextLinesShown(), layout.getSubtextLineCount(),
+                getSubtextString()));
+
+        String renderKey = layout.getRenderKey(color);
+        if (WidgetFrameProvider.hasFrame(context, renderKey)) {
+            Log.d(TAG, "Re-using already published widget frame " + renderKey);
+            return WidgetContent.createFrame(getTemperatureString(), getSubtextString(), color,
+                    WidgetFrameProvider.getFrameUri(renderKey));
+        }
+
         Bitmap bitmap =
                 Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
         Canvas canvas = new Canvas(bitmap);
         canvas.drawColor(Color.TRANSPARENT);
+        layout.draw(new AndroidRenderCanvas(canvas, ATLAS_TEXT_SIZE), color);
 
-        // Draw the temperature
-        Log.d(TAG, "Displaying temperature: <" + getTemperatureString() + ">");
-        float textSize = TEMPERATURE_HEIGHT;
-        Paint temperaturePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        if (isOld()) {
-            // Strike through old temperature to indicate its unreliability
-            temperaturePaint.setFlags(temperaturePaint.getFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
-        }
-        temperaturePaint.setTextSize(textSize);
-        int temperatureStyle = isWindChilledAcrossFreezing() ? Typeface.BOLD_ITALIC : Typeface.BOLD;
-        if (isOld()) {
-            // Don't boldface old temperatures
-            temperatureStyle = temperatureStyle & ~Typeface.BOLD;
-        }
-        Typeface temperatureTypeface = Typeface.create(Typeface.DEFAULT, temperatureStyle);
-        temperaturePaint.setTypeface(temperatureTypeface);
-        Rect bounds = new Rect();
-        temperaturePaint.getTextBounds(getTemperatureString(), 0, getTemperatureString().length(), bounds);
-        float wFactor = WIDTH / (float)bounds.width();
-        float hMeasurement = getTemperatureHeight(temperaturePaint, TEMPERATURE_SUBTEXT_SEPARATION);
-        float hFactor = TEMPERATURE_HEIGHT / hMeasurement;
-        float factor = Math.min(wFactor, hFactor);
-        textSize *= factor;
-        temperaturePaint.setTextSize(textSize);
-
-        temperaturePaint.setColor(color);
-        temperaturePaint.setTextAlign(Paint.Align.CENTER);
-
-        float xPos = canvas.getWidth() / 2f;
-        // This yPos calculation top-aligns the temperature string
-        float yPos = textSize - temperaturePaint.descent();
-        canvas.drawText(getTemperatureString(), xPos, yPos, temperaturePaint);
-
-        temperaturePaint.getTextBounds(getTemperatureString(), 0, getTemperatureString().length(), bounds);
-        float temperatureBottom = getTemperatureHeight(temperaturePaint, TEMPERATURE_SUBTEXT_SEPARATION);
-
-        // Draw the subtext
-        float subtextStart = computeSubtextStart(subtextLayout, HEIGHT, temperatureBottom);
-        canvas.translate(0, subtextStart);
-        subtextLayout.draw(canvas);
-
-        remoteViews.setImageViewBitmap(R.id.Bitmap, bitmap);
-
-        TextPaint subtextPaint = subtextLayout.getPaint();
-        assert subtextPaint != null;
-        float subtextFontSize = subtextPaint.getTextSize();
+        float subtextBottom = layout.getSubtextStart() + layout.getSubtextLineCount() * layout.getSubtextLineHeight();
         Log.d(TAG, String.format("Display layout is %d-%f, %f-%f, %d, subtext lines are %fpx, font is %fpx",
-                0, temperatureBottom,
-                subtextStart, Math.min(HEIGHT - 1, subtextStart + subtextLayout.getHeight()),
+                0, layout.getTemperatureBottom(),
+                layout.getSubtextStart(), Math.min(HEIGHT - 1, subtextBottom),
                 HEIGHT - 1,
-                subtextLayout.getHeight() / (float)subtextLayout.getLineCount(),
-                subtextFontSize));
+                layout.getSubtextLineHeight(),
+                layout.getSubtextTextSize()));
+
+        if (WidgetFrameProvider.publishFrame(context, renderKey, bitmap)) {
+            bitmap.recycle();
+            return WidgetContent.createFrame(getTemperatureString(), getSubtextString(), color,
+                    WidgetFrameProvider.getFrameUri(renderKey));
+        }
 
-        return remoteViews;
+        Log.w(TAG, "Publishing widget frame failed, embedding it in the update instead");
+        return WidgetContent.createFrame(getTemperatureString(), getSubtextString(), color, bitmap);
     }
 
     /**
-     * At what pixel line should we draw the subtext?
+     * Present our strings using plain text views.
      * <p>
-     * Try drawing it as low as possible while still showing as many lines as possible.
-     * @param subtextLayout The subtext to draw
-     * @param canvasHeight The height of the canvas we're drawing on
-     * @param upperLimit We may not start drawing on a higher up line than this one
+     * Unlike a rendered frame, text views aren't scaled to fit the widget, so the layout is made for the actual
+     * widget size.
+     *
+     * @param widgetSize The size of the widget in pixels
+     * @param atlasTextSize The glyph atlas text size to measure temperatures with
+     *
+     * @return Text content, or null if the text views wouldn't show as much subtext as a rendered frame
      */
-    private float computeSubtextStart(StaticLayout subtextLayout, int canvasHeight, float upperLimit) {
-        float lineHeight = subtextLayout.getHeight() / (float)subtextLayout.getLineCount();
-        float availablePixels = canvasHeight - upperLimit;
-        int maxFullLines = (int)(availablePixels / lineHeight);
-        int fullLinesToShow = Math.min(subtextLayout.getLineCount(), maxFullLines);
-        float subtextStart = canvasHeight - (fullLinesToShow * lineHeight);
-
-        int subtextLinesShown = Math.min(maxFullLines, subtextLayout.getLineCount());
-        Log.d(TAG, String.format("Displaying %d/%d lines of subtext: <%s>",
-                subtextLinesShown, subtextLayout.getLineCount(),
-                getSubtextString()));
-
-        //noinspection StatementWithEmptyBody
-        if (subtextLayout.getLineCount() == 1) {
-            // FIXME: If we have a single line of text, try putting it where the 4.2 launcher puts its icon titles.
-            // But since we don't know neither the widget size nor how the launcher lays out its app icons, I don't
-            // know if or how we could do this. /JW-2014feb18
+    @Nullable
+    private WidgetContent createTextContent(@NotNull Point widgetSize, int atlasTextSize, int color) {
+        WidgetLayout layout = createLayout(widgetSize.x, widgetSize.y);
+        layout.layout(new AndroidTextMeasurer(atlasTextSize));
+
+        // The temperature text view is a whole font line high, not just as high as the digits
+        Paint temperaturePaint =
+                GlyphAtlas.createTextPaint(layout.getTemperatureTextSize(), Typeface.BOLD, false);
+        Paint.FontMetrics fontMetrics = temperaturePaint.getFontMetrics();
+        float temperatureLineHeight = fontMetrics.descent - fontMetrics.ascent;
+        int linesBelowTemperature =
+                (int)((widgetSize.y - temperatureLineHeight) / layout.getSubtextLineHeight());
+        if (linesBelowTemperature < layout.getSubtextLinesShown()) {
+            Log.d(TAG, String.format("Text views have room for %d/%d lines of subtext in %dx%d, rendering a frame",
+                    Math.max(0, linesBelowTemperature), layout.getSubtextLinesShown(), widgetSize.x, widgetSize.y));
+            return null;
         }
-        assert subtextStart >= upperLimit;
 
-        return subtextStart;
+        Log.d(TAG, String.format("Presenting weather as text in %dx%d, with %d/%d lines of subtext: <%s>",
+                widgetSize.x, widgetSize.y,
+                layout.getSubtextLinesShown(), layout.getSubtextLineCount(),
+                getSubtextString()));
+        return WidgetContent.createText(
+                getTemperatureString(), layout.getTemperatureTextSize(),
+                getSubtextString(), layout.getSubtextTextSize(), layout.getSubtextLinesShown(),
+                color);
     }
 
     /**
-     * How high is the temperature string?
-     * @param spacing The space wanted between the temperature and the subtext, in pixels
-     * @return The height of the temperature string in pixels
+     * Create a layout for our current strings.
      */
-    private float getTemperatureHeight(Paint temperaturePaint, float spacing) {
-        Rect bounds = new Rect();
-        temperaturePaint.getTextBounds(getTemperatureString(), 0, getTemperatureString().length(), bounds);
-        return bounds.height() + spacing;
+    @NotNull
+    WidgetLayout createLayout(int width, int height) {
+        return new WidgetLayout(getTemperatureString(), getTemperatureStyle(),
+                getSubtextString(), forceShowExcuse || weather == null,
+                width, height);
     }
 
-    private float computeMaxTemperatureHeight(int canvasHeight, int subtextHeight) {
-        // FIXME: Get rid of this 3 thing; it's needed not to get too few lines of subtext, but understanding the problem and making it go away would be better.
-        final int GOODLUCK = 3;
-        float returnMe;
-        if (getSubtextString().isEmpty()) {
-            // No subtext, make the temperature number as big as possible
-            returnMe = canvasHeight;
-        } else if (forceShowExcuse || weather == null) {
-            // No weather or subtext is important for some other reason, give the subtext more room
-            returnMe = canvasHeight / 3f - GOODLUCK;
-        } else {
-            // This is the default case
-            returnMe = canvasHeight / 2f - GOODLUCK;
+    /**
+     * How should the temperature be styled?
+     *
+     * @return A combination of the {@link TextMeasurer} STYLE_ flags
+     */
+    int getTemperatureStyle() {
+        int temperatureStyle = TextMeasurer.STYLE_BOLD;
+        if (isWindChilledAcrossFreezing()) {
+            temperatureStyle |= TextMeasurer.STYLE_ITALIC;
         }
+        if (isOld()) {
+            // Don't boldface old temperatures, strike them through to indicate their unreliability
+            temperatureStyle &= ~TextMeasurer.STYLE_BOLD;
+            temperatureStyle |= TextMeasurer.STYLE_STRIKE_THRU;
+        }
+        return temperatureStyle;
+    }
 
-        // We can use all space not used by the subtext
-        returnMe = Math.max(returnMe, canvasHeight - subtextHeight - GOODLUCK);
+    /**
+     * Can our strings be shown using plain text views, without rendering a bitmap?
+     * <p>
+     * The text layout has a bold temperature and a serif subtext. Struck through or italic temperatures need to be
+     * rendered into a bitmap, and so does everything on devices that can't set text view sizes remotely.
+     */
+    boolean canPresentAsText() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // RemoteViews.setTextViewTextSize() is API level 16
+            return false;
+        }
 
-        // We don't want to be bigger than an app icon
-        returnMe = Math.min(returnMe, (canvasHeight * 0.6f) - GOODLUCK);
+        if (isOld()) {
+            // Old temperatures are struck through
+            return false;
+        }
 
-        return returnMe;
-    }
+        if (isWindChilledAcrossFreezing()) {
+            // Wind chilled across freezing temperatures are in italics
+            return false;
+        }
 
-    @NotNull
-    private StaticLayout getSubtextLayout(int width, float lineHeight, int color) {
-        TextPaint subtextPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
-        subtextPaint.setTextSize(lineHeight);
-        subtextPaint.setTextAlign(Paint.Align.LEFT);
-        subtextPaint.setTypeface(Typeface.SERIF);
-        subtextPaint.setColor(color);
-        StaticLayout subtextLayout =
-                new StaticLayout(getSubtextString(), subtextPaint, width, Layout.Alignment.ALIGN_CENTER, 1f, 0f, false);
-        float measuredLineHeight = subtextLayout.getHeight() / (float)subtextLayout.getLineCount();
-        float subtextFactor = lineHeight / measuredLineHeight;
-        lineHeight *= subtextFactor;
-        subtextPaint.setTextSize(lineHeight);
-        subtextLayout =
-                new StaticLayout(getSubtextString(), subtextPaint, width, Layout.Alignment.ALIGN_CENTER, 1f, 0f, false);
-        return subtextLayout;
+        return true;
     }
 
     private void updateStrings() {
@@ -303,26 +440,42 @@ public class WeatherPresenter {
                 subtextString = excuse;
             }
 
+            // All metrics are computed when the weather is parsed, these are just lookups
+            Weather.Metric metric = withWindChill ? Weather.Metric.WIND_CHILL : Weather.Metric.TEMPERATURE;
+            double exactUnchilledDegrees;
+            double exactChilledDegrees;
             int unchilledDegrees;
             int chilledDegrees;
             int freezingPoint;
             if (useCelsius) {
-                chilledDegrees = weather.getCentigrades(withWindChill);
-                unchilledDegrees = weather.getCentigrades(false);
+                exactChilledDegrees = weather.getExactCentigrades(metric);
+                exactUnchilledDegrees = weather.getExactCentigrades(Weather.Metric.TEMPERATURE);
+                chilledDegrees = weather.getCentigrades(metric);
+                unchilledDegrees = weather.getCentigrades(Weather.Metric.TEMPERATURE);
                 freezingPoint = 0;
             } else {
                 // In Liberia, they use Fahrenheit
-                chilledDegrees = weather.getFahrenheit(withWindChill);
-                unchilledDegrees = weather.getFahrenheit(false);
+                exactChilledDegrees = weather.getExactFahrenheit(metric);
+                exactUnchilledDegrees = weather.getExactFahrenheit(Weather.Metric.TEMPERATURE);
+                chilledDegrees = weather.getFahrenheit(metric);
+                unchilledDegrees = weather.getFahrenheit(Weather.Metric.TEMPERATURE);
                 freezingPoint = 32;
             }
 
-            degrees = Integer.toString(chilledDegrees);
             windChillComputed = (chilledDegrees != unchilledDegrees);
             windChilledAcrossFreezing =
                     (windChillComputed
                             && unchilledDegrees > freezingPoint
                             && chilledDegrees < freezingPoint);
+
+            if (stabilizer != null) {
+                stabilizer.update(useCelsius, withWindChill,
+                        exactChilledDegrees, exactUnchilledDegrees, freezingPoint);
+                chilledDegrees = stabilizer.getDegrees();
+                windChillComputed = stabilizer.isWindChilled();
+                windChilledAcrossFreezing = stabilizer.isAcrossFreezing();
+            }
+            degrees = Integer.toString(chilledDegrees);
         } else {
             subtextString = excuse;
         }
@@ -340,6 +493,29 @@ public class WeatherPresenter {
         dirty = false;
     }
 
+    /**
+     * When will our presentation change with nothing but time passing?
+     * <p>
+     * The only thing that changes with time is {@link #isOld()}; old weather is struck through and gets the excuse as
+     * its subtext. Statuses are timestamped when they are set and don't change by themselves.
+     *
+     * @return A {@link System#currentTimeMillis()} time, or 0 if our presentation won't change by itself
+     */
+    long getNextChange() {
+        if (weather == null || isOld()) {
+            return 0;
+        }
+
+        Calendar observationTime = weather.getObservationTime();
+        if (observationTime == null) {
+            // Timeless weather is always old, we shouldn't get here
+            return 0;
+        }
+
+        // isOld() truncates the age to whole minutes
+        return observationTime.getTimeInMillis() + (MAX_WEATHER_AGE_MINUTES + 1) * 60 * 1000L;
+    }
+
     private boolean isOld() {
         if (weather == null) {
             return false;
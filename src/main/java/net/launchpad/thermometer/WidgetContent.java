@@ -0,0 +1,281 @@
+package net.launchpad.thermometer;
+
+import android.annotation.TargetApi;
+import android.app.PendingIntent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Build;
+import android.util.TypedValue;
+import android.widget.RemoteViews;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumSet;
+
+/**
+ * What a widget shows, and how to get it there from what it showed before.
+ * <p>
+ * Comparing two contents tells us which {@link Change}s there are between them. Changes to just the subtext or the
+ * click target can be sent as small partial updates, while the rest need the whole widget to be re-sent.
+ */
+final class WidgetContent {
+    /**
+     * Kinds of differences between two widget contents.
+     */
+    enum Change {
+        /**
+         * The temperature string, its size or its style changed.
+         */
+        TEMPERATURE,
+
+        SUBTEXT,
+
+        COLOR,
+
+        /**
+         * What happens when the user clicks the widget changed.
+         */
+        CLICK
+    }
+
+    /**
+     * Either {@link R.layout#widget_text} or {@link R.layout#widget_main}.
+     */
+    private final int layoutId;
+
+    @NotNull
+    private final String temperature;
+    private final float temperatureTextSize;
+
+    @NotNull
+    private final String subtext;
+    private final float subtextTextSize;
+
+    /**
+     * For {@link R.layout#widget_text}, how many lines of subtext there's room for.
+     */
+    private final int subtextMaxLines;
+
+    private final int color;
+
+    /**
+     * For {@link R.layout#widget_main}, where the launcher can find our rendering.
+     */
+    @Nullable
+    private final Uri frameUri;
+
+    /**
+     * For {@link R.layout#widget_main}, our rendering if we couldn't publish it through {@link #frameUri}.
+     */
+    @Nullable
+    private final Bitmap frameBitmap;
+
+    @Nullable
+    private final PendingIntent clickIntent;
+
+    private WidgetContent(int layoutId,
+                          @NotNull String temperature, float temperatureTextSize,
+                          @NotNull String subtext, float subtextTextSize, int subtextMaxLines,
+                          int color,
+                          @Nullable Uri frameUri, @Nullable Bitmap frameBitmap,
+                          @Nullable PendingIntent clickIntent)
+    {
+        this.layoutId = layoutId;
+        this.temperature = temperature;
+        this.temperatureTextSize = temperatureTextSize;
+        this.subtext = subtext;
+        this.subtextTextSize = subtextTextSize;
+        this.subtextMaxLines = subtextMaxLines;
+        this.color = color;
+        this.frameUri = frameUri;
+        this.frameBitmap = frameBitmap;
+        this.clickIntent = clickIntent;
+    }
+
+    /**
+     * Content presented using plain text views.
+     *
+     * @param subtextMaxLines How many lines of subtext to show; lines beyond this are cut off, like in a rendered
+     * frame
+     */
+    @NotNull
+    static WidgetContent createText(@NotNull String temperature, float temperatureTextSize,
+                                    @NotNull String subtext, float subtextTextSize, int subtextMaxLines,
+                                    int color)
+    {
+        return new WidgetContent(R.layout.widget_text,
+                temperature, temperatureTextSize, subtext, subtextTextSize, subtextMaxLines, color,
+                null, null, null);
+    }
+
+    /**
+     * Content presented as a frame published through {@link WidgetFrameProvider}.
+     */
+    @NotNull
+    static WidgetContent createFrame(@NotNull String temperature, @NotNull String subtext, int color,
+                                     @NotNull Uri frameUri)
+    {
+        return new WidgetContent(R.layout.widget_main,
+                temperature, 0, subtext, 0, 0, color,
+                frameUri, null, null);
+    }
+
+    /**
+     * Content presented as a bitmap embedded in the update.
+     */
+    @NotNull
+    static WidgetContent createFrame(@NotNull String temperature, @NotNull String subtext, int color,
+                                     @NotNull Bitmap frameBitmap)
+    {
+        return new WidgetContent(R.layout.widget_main,
+                temperature, 0, subtext, 0, 0, color,
+                null, frameBitmap, null);
+    }
+
+    /**
+     * Create a copy of this content that launches clickIntent when clicked.
+     */
+    @NotNull
+    WidgetContent withClickIntent(@Nullable PendingIntent clickIntent) {
+        return new WidgetContent(layoutId,
+                temperature, temperatureTextSize, subtext, subtextTextSize, subtextMaxLines, color,
+                frameUri, frameBitmap, clickIntent);
+    }
+
+    private static boolean equal(@Nullable Object a, @Nullable Object b) {
+        if (a == null) {
+            return b == null;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * How does this content differ from what we showed previously?
+     */
+    @NotNull
+    EnumSet<Change> getChanges(@NotNull WidgetContent previous) {
+        EnumSet<Change> changes = EnumSet.noneOf(Change.class);
+
+        if (!temperature.equals(previous.temperature) || temperatureTextSize != previous.temperatureTextSize) {
+            changes.add(Change.TEMPERATURE);
+        }
+        if (!subtext.equals(previous.subtext)
+                || subtextTextSize != previous.subtextTextSize
+                || subtextMaxLines != previous.subtextMaxLines)
+        {
+            changes.add(Change.SUBTEXT);
+        }
+        if (color != previous.color) {
+            changes.add(Change.COLOR);
+        }
+        if (!equal(clickIntent, previous.clickIntent)) {
+            changes.add(Change.CLICK);
+        }
+
+        boolean frameChanged = frameBitmap != null || !equal(frameUri, previous.frameUri);
+        if (frameChanged && changes.isEmpty()) {
+            // Same strings in a different frame, the temperature style must have changed
+            changes.add(Change.TEMPERATURE);
+        }
+
+        return changes;
+    }
+
+    /**
+     * Can we get from previous to this content using {@link #createDelta(String, WidgetContent)}?
+     */
+    boolean canPartiallyUpdate(@NotNull WidgetContent previous) {
+        if (layoutId != previous.layoutId) {
+            return false;
+        }
+
+        EnumSet<Change> changes = getChanges(previous);
+        if (changes.contains(Change.CLICK) && clickIntent == null) {
+            // A partial update can change the click target but not remove it
+            return false;
+        }
+        return !changes.contains(Change.TEMPERATURE) && !changes.contains(Change.COLOR);
+    }
+
+    /**
+     * Create a complete representation of this content, for when a widget may not have shown anything before.
+     */
+    @NotNull
+    RemoteViews createRemoteViews(@NotNull String packageName) {
+        RemoteViews remoteViews = new RemoteViews(packageName, layoutId);
+
+        if (layoutId == R.layout.widget_text) {
+            setTemperatureText(remoteViews);
+            setSubtextText(remoteViews);
+        } else {
+            setFrame(remoteViews);
+        }
+
+        if (clickIntent != null) {
+            remoteViews.setOnClickPendingIntent(R.id.AllOfIt, clickIntent);
+        }
+
+        return remoteViews;
+    }
+
+    /**
+     * Create a representation of only the differences between this and some previous content. To be used with
+     * partial widget updates.
+     *
+     * @see #canPartiallyUpdate(WidgetContent)
+     */
+    @NotNull
+    RemoteViews createDelta(@NotNull String packageName, @NotNull WidgetContent previous) {
+        if (!canPartiallyUpdate(previous)) {
+            throw new IllegalArgumentException("Need a full update from " + previous + " to " + this);
+        }
+
+        RemoteViews remoteViews = new RemoteViews(packageName, layoutId);
+        EnumSet<Change> changes = getChanges(previous);
+
+        if (changes.contains(Change.SUBTEXT)) {
+            if (layoutId == R.layout.widget_text) {
+                setSubtextText(remoteViews);
+            } else {
+                // The subtext is part of the frame
+                setFrame(remoteViews);
+            }
+        }
+
+        if (changes.contains(Change.CLICK) && clickIntent != null) {
+            remoteViews.setOnClickPendingIntent(R.id.AllOfIt, clickIntent);
+        }
+
+        return remoteViews;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setTemperatureText(@NotNull RemoteViews remoteViews) {
+        remoteViews.setTextViewText(R.id.Temperature, temperature);
+        remoteViews.setTextColor(R.id.Temperature, color);
+        remoteViews.setTextViewTextSize(R.id.Temperature, TypedValue.COMPLEX_UNIT_PX, temperatureTextSize);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setSubtextText(@NotNull RemoteViews remoteViews) {
+        remoteViews.setTextViewText(R.id.Subtext, subtext);
+        remoteViews.setTextColor(R.id.Subtext, color);
+        remoteViews.setTextViewTextSize(R.id.Subtext, TypedValue.COMPLEX_UNIT_PX, subtextTextSize);
+        remoteViews.setInt(R.id.Subtext, "setMaxLines", subtextMaxLines);
+    }
+
+    private void setFrame(@NotNull RemoteViews remoteViews) {
+        if (frameUri != null) {
+            remoteViews.setImageViewUri(R.id.Bitmap, frameUri);
+        } else {
+            remoteViews.setImageViewBitmap(R.id.Bitmap, frameBitmap);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: <%s>, <%s>",
+                layoutId == R.layout.widget_text ? "text" : "frame",
+                temperature, subtext);
+    }
+}
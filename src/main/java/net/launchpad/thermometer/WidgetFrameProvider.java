@@ -0,0 +1,203 @@
+package net.launchpad.thermometer;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Serves rendered widget frames to the launcher.
+ * <p>
+ * Rather than embedding a bitmap in every widget update, we store each frame as a PNG named after its render key and
+ * point the widget's image view at it through {@link #getFrameUri(String)}. The URI changes only when the render key
+ * does, so updates that render the same thing again cost the launcher nothing but a short URI.
+ * <p>
+ * This provider is read-only.
+ *
+ * @see WidgetLayout#getRenderKey(int)
+ */
+public class WidgetFrameProvider extends ContentProvider {
+    private static final String AUTHORITY = "net.launchpad.thermometer.frames";
+
+    /**
+     * How many frames to keep around. The launcher may still be showing the previous frame while we publish a new
+     * one, so we need more than one.
+     */
+    private static final int FRAMES_TO_KEEP = 3;
+
+    /**
+     * What frame file names look like, anything else is refused.
+     */
+    private static final Pattern FRAME_NAME = Pattern.compile("[0-9a-f]+\\.png");
+
+    /**
+     * Where we store our frames. Not in the cache dir; if the system cleared that behind our back the launcher would
+     * be left pointing at frames that no longer exist.
+     */
+    @NotNull
+    private static File getFramesDir(@NotNull Context context) {
+        return context.getDir("frames", Context.MODE_PRIVATE);
+    }
+
+    @NotNull
+    private static String getFrameName(@NotNull String renderKey) {
+        return renderKey + ".png";
+    }
+
+    /**
+     * Where the launcher can find a frame.
+     */
+    @NotNull
+    static Uri getFrameUri(@NotNull String renderKey) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(getFrameName(renderKey))
+                .build();
+    }
+
+    /**
+     * Has a frame for this render key been published already?
+     */
+    static boolean hasFrame(@NotNull Context context, @NotNull String renderKey) {
+        return new File(getFramesDir(context), getFrameName(renderKey)).isFile();
+    }
+
+    /**
+     * Store a frame so that the launcher can load it through {@link #getFrameUri(String)}.
+     * <p>
+     * Old frames are pruned.
+     *
+     * @return True if the frame was stored, false otherwise
+     */
+    static boolean publishFrame(@NotNull Context context, @NotNull String renderKey, @NotNull Bitmap frame) {
+        File framesDir = getFramesDir(context);
+        File frameFile = new File(framesDir, getFrameName(renderKey));
+
+        // Write to a temporary file and rename it into place so the launcher never sees half a frame
+        File tempFile = new File(framesDir, getFrameName(renderKey) + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            if (!frame.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                Log.w(TAG, "Compressing widget frame failed");
+                return false;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Writing widget frame failed: " + tempFile.getAbsolutePath(), e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close " + tempFile, e);
+                }
+            }
+        }
+
+        if (!tempFile.renameTo(frameFile)) {
+            Log.w(TAG, "Renaming widget frame into place failed: " + frameFile.getAbsolutePath());
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return false;
+        }
+        Log.d(TAG, String.format("Published %d byte widget frame %s", frameFile.length(), frameFile.getName()));
+
+        pruneFrames(framesDir);
+        return true;
+    }
+
+    /**
+     * Delete all but the {@link #FRAMES_TO_KEEP} most recently published frames.
+     */
+    private static void pruneFrames(@NotNull File framesDir) {
+        File[] frames = framesDir.listFiles();
+        if (frames == null || frames.length <= FRAMES_TO_KEEP) {
+            return;
+        }
+
+        // Newest first
+        Arrays.sort(frames, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                if (aModified == bModified) {
+                    return 0;
+                }
+                return aModified > bModified ? -1 : 1;
+            }
+        });
+
+        for (int i = FRAMES_TO_KEEP; i < frames.length; i++) {
+            if (!frames[i].delete()) {
+                Log.w(TAG, "Failed to delete old widget frame " + frames[i].getAbsolutePath());
+            }
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(@NotNull Uri uri, @NotNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Widget frames are read-only, can't open in mode " + mode + ": " + uri);
+        }
+
+        String name = uri.getLastPathSegment();
+        if (name == null || !FRAME_NAME.matcher(name).matches()) {
+            throw new FileNotFoundException("Not a widget frame: " + uri);
+        }
+
+        File frameFile = new File(getFramesDir(getContext()), name);
+        return ParcelFileDescriptor.open(frameFile, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getType(@NotNull Uri uri) {
+        return "image/png";
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NotNull Uri uri, String[] projection,
+                        String selection, String[] selectionArgs, String sortOrder)
+    {
+        return null;
+    }
+
+    @Override
+    public Uri insert(@NotNull Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Widget frames are read-only");
+    }
+
+    @Override
+    public int delete(@NotNull Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Widget frames are read-only");
+    }
+
+    @Override
+    public int update(@NotNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Widget frames are read-only");
+    }
+}
@@ -0,0 +1,182 @@
+package net.launchpad.thermometer;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static net.launchpad.thermometer.ThermometerWidget.TAG;
+
+/**
+ * Keeps track of which widgets exist without asking the system every time.
+ * <p>
+ * {@link ThermometerWidget} tells us when widgets are added or removed, and we persist the IDs so they survive
+ * process death. Every once in a while, and whenever we think there are no widgets left, the IDs are verified against
+ * {@link AppWidgetManager#getAppWidgetIds(ComponentName)}.
+ */
+class WidgetIdRegistry {
+    private static final String PREFERENCES_NAME = "widget-ids";
+    private static final String IDS_KEY = "ids";
+    private static final String VERIFIED_KEY = "verifiedTimestamp";
+
+    /**
+     * How often do we check our IDs against the system's?
+     */
+    private static final long VERIFY_INTERVAL_MS = 6 * 60 * 60 * 1000L;
+
+    private static int verifications = 0;
+
+    private WidgetIdRegistry() {
+        // Don't instantiate this class
+    }
+
+    private static SharedPreferences getPreferences(@NotNull Context context) {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Some widgets have been added or updated.
+     */
+    static synchronized void add(@NotNull Context context, int[] widgetIds) {
+        SharedPreferences preferences = getPreferences(context);
+        SortedSet<Integer> ids = parse(preferences.getString(IDS_KEY, ""));
+        for (int widgetId : widgetIds) {
+            ids.add(widgetId);
+        }
+        preferences.edit().putString(IDS_KEY, format(ids)).apply();
+    }
+
+    /**
+     * Some widgets have been deleted.
+     */
+    static synchronized void remove(@NotNull Context context, int[] widgetIds) {
+        SharedPreferences preferences = getPreferences(context);
+        SortedSet<Integer> ids = parse(preferences.getString(IDS_KEY, ""));
+        for (int widgetId : widgetIds) {
+            ids.remove(widgetId);
+        }
+        preferences.edit().putString(IDS_KEY, format(ids)).apply();
+    }
+
+    /**
+     * Return widget IDs for all active Thermometer Widgets.
+     *
+     * @return Sorted widget IDs for all active Thermometer Widgets.
+     */
+    @NotNull
+    static int[] getWidgetIds(@NotNull Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        int[] widgetIds;
+        long verifiedTimestamp;
+        synchronized (WidgetIdRegistry.class) {
+            widgetIds = toArray(parse(preferences.getString(IDS_KEY, "")));
+            verifiedTimestamp = preferences.getLong(VERIFIED_KEY, 0);
+        }
+
+        long verifiedAgeMs = System.currentTimeMillis() - verifiedTimestamp;
+        if (widgetIds.length > 0 && verifiedAgeMs >= 0 && verifiedAgeMs < VERIFY_INTERVAL_MS) {
+            return widgetIds;
+        }
+
+        // Either it's time to check with the system, or we're about to shut down and want to be sure about it
+        int[] systemIds = verify(context);
+        if (!Arrays.equals(widgetIds, systemIds)) {
+            Log.i(TAG, String.format("Widget ID registry had %s but the system says %s",
+                    Arrays.toString(widgetIds), Arrays.toString(systemIds)));
+        }
+        return systemIds;
+    }
+
+    /**
+     * Ask the system which widgets exist and remember the answer.
+     */
+    @NotNull
+    private static int[] verify(@NotNull Context context) {
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        assert manager != null;
+
+        // Note that this is a binder call, don't do this while holding our lock
+        int[] systemIds =
+            manager.getAppWidgetIds(
+                new ComponentName(
+                    "net.launchpad.thermometer",
+                    ThermometerWidget.class.getCanonicalName()));
+
+        SortedSet<Integer> ids = new TreeSet<Integer>();
+        for (int widgetId : systemIds) {
+            ids.add(widgetId);
+        }
+
+        // Should a widget be added while we're asking, we'll forget about it until the next verification. Since the
+        // system adds widgets before telling us about them, that window is very small.
+        synchronized (WidgetIdRegistry.class) {
+            verifications++;
+            getPreferences(context).edit()
+                    .putString(IDS_KEY, format(ids))
+                    .putLong(VERIFIED_KEY, System.currentTimeMillis())
+                    .apply();
+        }
+        Log.d(TAG, "Got widget IDs from the system: " + ids);
+
+        return toArray(ids);
+    }
+
+    /**
+     * How many times have we asked the system for widget IDs since the process started?
+     */
+    static synchronized int getVerificationCount() {
+        return verifications;
+    }
+
+    /**
+     * Parse a string created by {@link #format(SortedSet)}.
+     * <p>
+     * Has default protection for testing purposes.
+     */
+    @NotNull
+    static SortedSet<Integer> parse(@NotNull String ids) {
+        SortedSet<Integer> returnMe = new TreeSet<Integer>();
+        for (String id : ids.split(",")) {
+            if (id.isEmpty()) {
+                continue;
+            }
+            try {
+                returnMe.add(Integer.valueOf(id));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring unparsable widget ID <" + id + "> in <" + ids + ">");
+            }
+        }
+        return returnMe;
+    }
+
+    /**
+     * Has default protection for testing purposes.
+     */
+    @NotNull
+    static String format(@NotNull SortedSet<Integer> ids) {
+        StringBuilder returnMe = new StringBuilder();
+        for (Integer id : ids) {
+            if (returnMe.length() > 0) {
+                returnMe.append(',');
+            }
+            returnMe.append(id);
+        }
+        return returnMe.toString();
+    }
+
+    @NotNull
+    private static int[] toArray(@NotNull SortedSet<Integer> ids) {
+        int[] returnMe = new int[ids.size()];
+        int i = 0;
+        for (Integer id : ids) {
+            returnMe[i++] = id;
+        }
+        return returnMe;
+    }
+}
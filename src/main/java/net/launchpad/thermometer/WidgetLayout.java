@@ -0,0 +1,229 @@
+package net.launchpad.thermometer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Decides where and how big to draw the temperature and the subtext in the widget.
+ * <p>
+ * This class knows nothing about Android. Measuring and drawing is done through {@link TextMeasurer} and
+ * {@link RenderCanvas}, so layouts can be computed and rendered on a plain JVM as well.
+ */
+final class WidgetLayout {
+    @NotNull
+    private final String temperature;
+    private final int temperatureStyle;
+
+    @NotNull
+    private final String subtext;
+    private final boolean subtextImportant;
+
+    private final int width;
+    private final int height;
+
+    private boolean laidOut = false;
+
+    private float temperatureTextSize;
+    private float temperatureBaseline;
+    private float temperatureBottom;
+
+    private float subtextTextSize;
+    private float subtextLineHeight;
+    private int subtextLineCount;
+    private int subtextLinesShown;
+    private float subtextStart;
+
+    /**
+     * @param temperatureStyle A combination of the {@link TextMeasurer} STYLE_ flags
+     * @param subtextImportant True if the subtext should get more room than usual
+     * @param width The width of the widget in pixels
+     * @param height The height of the widget in pixels
+     */
+    WidgetLayout(@NotNull String temperature, int temperatureStyle,
+                 @NotNull String subtext, boolean subtextImportant,
+                 int width, int height)
+    {
+        this.temperature = temperature;
+        this.temperatureStyle = temperatureStyle;
+        this.subtext = subtext;
+        this.subtextImportant = subtextImportant;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Compute the layout. Must be called before any of the getters or {@link #draw(RenderCanvas, int)}.
+     */
+    void layout(@NotNull TextMeasurer measurer) {
+        final float SUBTEXT_LINE_HEIGHT = height / 6f;
+        final float TEMPERATURE_SUBTEXT_SEPARATION = SUBTEXT_LINE_HEIGHT * 0.3f;
+
+        // Line heights scale linearly with the text size, so one measurement tells us what text size to use
+        subtextTextSize =
+                SUBTEXT_LINE_HEIGHT * (SUBTEXT_LINE_HEIGHT / measurer.getSubtextLineHeight(SUBTEXT_LINE_HEIGHT));
+        subtextLineHeight = measurer.getSubtextLineHeight(subtextTextSize);
+        subtextLineCount = measurer.getSubtextLineCount(subtext, subtextTextSize, width);
+
+        final float TEMPERATURE_HEIGHT = computeMaxTemperatureHeight(subtextLineCount * subtextLineHeight);
+
+        // Measure at the maximum height and scale down to fit
+        final float REFERENCE_SIZE = TEMPERATURE_HEIGHT;
+        float[] bounds = new float[4];
+        measurer.getTemperatureBounds(temperature, REFERENCE_SIZE, temperatureStyle, bounds);
+        float boundsWidth = bounds[2] - bounds[0];
+        float boundsHeight = bounds[3] - bounds[1];
+        float wFactor = width / boundsWidth;
+        float hFactor = TEMPERATURE_HEIGHT / (boundsHeight + TEMPERATURE_SUBTEXT_SEPARATION);
+        float scale = Math.min(wFactor, hFactor);
+
+        temperatureTextSize = REFERENCE_SIZE * scale;
+        // This baseline calculation top-aligns the temperature string
+        temperatureBaseline =
+                temperatureTextSize - measurer.getTemperatureDescent(temperatureTextSize, temperatureStyle);
+        temperatureBottom = boundsHeight * scale + TEMPERATURE_SUBTEXT_SEPARATION;
+
+        subtextStart = computeSubtextStart(temperatureBottom);
+
+        laidOut = true;
+    }
+
+    /**
+     * At what pixel line should we draw the subtext?
+     * <p>
+     * Try drawing it as low as possible while still showing as many lines as possible.
+     *
+     * @param upperLimit We may not start drawing on a higher up line than this one
+     */
+    private float computeSubtextStart(float upperLimit) {
+        float availablePixels = height - upperLimit;
+        int maxFullLines = (int)(availablePixels / subtextLineHeight);
+        subtextLinesShown = Math.min(subtextLineCount, maxFullLines);
+
+        // FIXME: If we have a single line of text, try putting it where the 4.2 launcher puts its icon titles.
+        // But since we don't know neither the widget size nor how the launcher lays out its app icons, I don't
+        // know if or how we could do this. /JW-2014feb18
+
+        return height - (subtextLinesShown * subtextLineHeight);
+    }
+
+    private float computeMaxTemperatureHeight(float subtextHeight) {
+        // FIXME: Get rid of this 3 thing; it's needed not to get too few lines of subtext, but understanding the problem and making it go away would be better.
+        final int GOODLUCK = 3;
+        float returnMe;
+        if (subtext.isEmpty()) {
+            // No subtext, make the temperature number as big as possible
+            returnMe = height;
+        } else if (subtextImportant) {
+            // No weather or subtext is important for some other reason, give the subtext more room
+            returnMe = height / 3f - GOODLUCK;
+        } else {
+            // This is the default case
+            returnMe = height / 2f - GOODLUCK;
+        }
+
+        // We can use all space not used by the subtext
+        returnMe = Math.max(returnMe, height - subtextHeight - GOODLUCK);
+
+        // We don't want to be bigger than an app icon
+        returnMe = Math.min(returnMe, (height * 0.6f) - GOODLUCK);
+
+        return returnMe;
+    }
+
+    /**
+     * Draw the temperature and the subtext.
+     *
+     * @param color An ARGB color
+     */
+    void draw(@NotNull RenderCanvas canvas, int color) {
+        assertLaidOut();
+
+        canvas.drawTemperature(temperature, width / 2f, temperatureBaseline,
+                temperatureTextSize, temperatureStyle, color);
+        canvas.drawSubtext(subtext, subtextStart, subtextTextSize, width, color);
+    }
+
+    /**
+     * Identify what {@link #draw(RenderCanvas, int)} would render.
+     * <p>
+     * Two layouts with the same render key render the same pixels. Doesn't require {@link #layout(TextMeasurer)} to
+     * have been called.
+     *
+     * @param color An ARGB color
+     *
+     * @return A string of lowercase hex digits
+     */
+    @NotNull
+    String getRenderKey(int color) {
+        String description = String.format("%s|%d|%s|%b|%dx%d|%08x",
+                temperature, temperatureStyle, subtext, subtextImportant, width, height, color);
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 is guaranteed to be available", e);
+        }
+
+        byte[] hash;
+        try {
+            hash = digest.digest(description.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 is guaranteed to be available", e);
+        }
+
+        // Half of a SHA-1 is plenty for telling a handful of frames apart
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < hash.length / 2; i++) {
+            key.append(String.format("%02x", hash[i] & 0xff));
+        }
+        return key.toString();
+    }
+
+    private void assertLaidOut() {
+        if (!laidOut) {
+            throw new IllegalStateException("layout() must be called first");
+        }
+    }
+
+    float getTemperatureTextSize() {
+        assertLaidOut();
+        return temperatureTextSize;
+    }
+
+    /**
+     * The first pixel line below the temperature and its separation from the subtext.
+     */
+    float getTemperatureBottom() {
+        assertLaidOut();
+        return temperatureBottom;
+    }
+
+    float getSubtextTextSize() {
+        assertLaidOut();
+        return subtextTextSize;
+    }
+
+    float getSubtextLineHeight() {
+        assertLaidOut();
+        return subtextLineHeight;
+    }
+
+    float getSubtextStart() {
+        assertLaidOut();
+        return subtextStart;
+    }
+
+    int getSubtextLineCount() {
+        assertLaidOut();
+        return subtextLineCount;
+    }
+
+    int getSubtextLinesShown() {
+        assertLaidOut();
+        return subtextLinesShown;
+    }
+}
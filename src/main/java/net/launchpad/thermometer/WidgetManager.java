@@ -29,27 +29,39 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.EnumSet;
 import java.util.GregorianCalendar;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import android.annotation.SuppressLint;
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.appwidget.AppWidgetManager;
-import android.content.ComponentName;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.graphics.Color;
+import android.graphics.Point;
 import android.location.Location;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.text.format.DateFormat;
 import android.util.Log;
-import android.widget.RemoteViews;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.json.JSONException;
@@ -83,69 +95,151 @@ public class WidgetManager extends Service {
     @SuppressLint("SdCardPath")
     private final String TRACE_FILE_NAME = "/data/data/net.launchpad.thermometer/johan.trace";
 
-    private final Handler handler = new Handler();
-
     /**
      * Used for tagging update intents with why they were sent.
      */
     private final static String UPDATE_REASON = "Update Reason";
 
     /**
-     * Listens for events and requests widget updates as required.
+     * Listens for events and requests widget updates as required. Null until we get our first update request.
      */
-    @Nullable
-    private UpdateListener updateListener;
+    private final AtomicReference<UpdateListener> updateListener = new AtomicReference<UpdateListener>();
 
     /**
-     * Has the UI ever been updated?
+     * Must be accessed through {@link #getPreferences()}.
      */
-    private boolean uiUpdated = false;
+    private SharedPreferences preferences;
 
     /**
-     * Must be accessed through {@link #getPreferences()}.
+     * What the widget should show.
+     * <p>
+     * Changes are made by compare-and-set, so nobody ever needs to lock anything to read or update this.
      */
-    private SharedPreferences preferences;
+    private final AtomicReference<WidgetState> state = new AtomicReference<WidgetState>(WidgetState.INITIAL);
 
     /**
-     * You need to synchronize on this before accessing any of the other
-     * fields of this class.
+     * Have we tried loading the weather from {@link #getWeatherJsonFile()}?
      */
-    private final Object weatherLock = new Object();
+    private volatile boolean cachedWeatherLoaded = false;
 
     /**
-     * The latest weather measurement.
-     * <p>
-     * You must synchronize on {@link #weatherLock} before accessing this.
+     * Has the fetch alarm been registered?
      */
-    @Nullable
-    private Weather weather;
+    private final AtomicBoolean periodicUpdateSet = new AtomicBoolean(false);
 
     /**
-     * Has the periodic updates alarm been registered?
+     * Must be accessed through {@link #getFetchScheduler()}.
      */
-    private boolean periodicUpdateSet = false;
+    private FetchScheduler fetchScheduler;
 
     /**
-     * How we're currently doing on getting a good temperature reading for
-     * the user.
+     * Must be accessed through {@link #getUsageModel()}.
      */
-    private String status;
+    private UsageModel usageModel;
 
     /**
-     * Thread that fetches temperature data for us.
+     * Fetches temperature data for us.
      */
     private final TemperatureFetcher temperatureFetcher;
 
+    /**
+     * The most recently started fetch, or null if we haven't started any. Only set from the main thread.
+     */
+    @Nullable
+    private volatile TemperatureFetcher.Handle currentFetch;
+
+    /**
+     * How many on-demand start commands are still being worked on?
+     *
+     * @see #onDemandUpdate(Intent, int)
+     */
+    private final AtomicInteger onDemandWork = new AtomicInteger();
+
+    /**
+     * The start ID of the most recent on-demand start command.
+     */
+    private volatile int lastStartId;
+
+    /**
+     * Where we were when we last started a fetch, or null if we haven't started any.
+     */
+    @Nullable
+    private volatile Location fetchedLocation;
+
+    /**
+     * Thread that renders widget updates for us.
+     */
+    private final RenderThread<WidgetState> renderThread;
+
+    /**
+     * Merges wakeups arriving close together into one work cycle. Created in {@link #onCreate()}, since it needs a
+     * wake lock from the system.
+     */
+    private WakeupConsolidator wakeups;
+
     /**
      * This thing puts log messages into files for us.
      */
     private java.lang.Process logcat;
 
     /**
-     * If non-null, we're having problems with the Google Play Services API, and invoking this intent should resolve
-     * them.
+     * What our widgets were last told to show, or null if we haven't told them anything yet. Only touched from
+     * {@link #renderThread}.
+     */
+    @Nullable
+    private WidgetContent shownContent;
+
+    /**
+     * The sorted IDs of the widgets that were told to show {@link #shownContent}.
+     */
+    @Nullable
+    private int[] shownWidgetIds;
+
+    /**
+     * Keeps the shown temperature from flapping between renders. Only touched from {@link #renderThread}, except for
+     * reading its statistics.
+     */
+    private final WeatherPresenter.Stabilizer stabilizer =
+            new WeatherPresenter.Stabilizer(WeatherPresenter.Stabilizer.DEFAULT_BAND);
+
+    /**
+     * When our presentation alarm is set to go off, or 0 if we haven't set it. Only touched from
+     * {@link #renderThread}.
+     */
+    private long presentationAlarm = 0;
+
+    /**
+     * Is the screen on? Nobody sees the widget while it's off, so we render and fetch as little as we can then.
+     */
+    private volatile boolean screenOn = true;
+
+    /**
+     * Did {@link #updateUi()} skip rendering because the screen was off?
+     */
+    private final AtomicBoolean renderDeferred = new AtomicBoolean(false);
+
+    /**
+     * Why {@link #updateMeasurement(UpdateReason)} last skipped fetching because the screen was off, or null if it
+     * hasn't since the screen was last on.
      */
-    private PendingIntent gpsaResolution;
+    @Nullable
+    private volatile UpdateReason fetchDeferred;
+
+    /**
+     * Tells us when the screen goes on or off.
+     */
+    private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                Log.d(TAG, "Screen off, deferring renders and fetches");
+                screenOn = false;
+            } else {
+                getUsageModel().onLook();
+                onScreenOn();
+            }
+        }
+    };
 
     /**
      * Create a new widget manager.
@@ -158,7 +252,14 @@ public class WidgetManager extends Service {
         }
 
         temperatureFetcher = new TemperatureFetcher(this);
-        temperatureFetcher.start();
+
+        renderThread = new RenderThread<WidgetState>(new RenderThread.Renderer<WidgetState>() {
+            @Override
+            public void render(@NotNull WidgetState state) {
+                doUpdateUi(state);
+            }
+        });
+
     }
 
     /**
@@ -172,7 +273,30 @@ public class WidgetManager extends Service {
     public void onCreate() {
         super.onCreate();
 
+        restoreSnapshot();
+
+        PowerManager powerManager = (PowerManager)getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        wakeLock.setReferenceCounted(false);
+        wakeups = new WakeupConsolidator(new Handler(Looper.getMainLooper()), wakeLock,
+                new WakeupConsolidator.Worker() {
+                    @Override
+                    public void doWork(@NotNull EnumSet<UpdateReason> reasons) {
+                        handleWakeup(reasons);
+                    }
+                });
+        screenOn = powerManager.isScreenOn();
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        screenFilter.addAction(Intent.ACTION_USER_PRESENT);
+        registerReceiver(screenReceiver, screenFilter);
+
         killOldLogcat();
+        if (isOnDemand(this)) {
+            // On-demand mode is about not keeping things resident, and logcat would be
+            Log.i(TAG, "On-demand mode, not storing logs");
+            return;
+        }
 
         File logfile = getLogFile();
 
@@ -200,6 +324,110 @@ public class WidgetManager extends Service {
         }
     }
 
+    /**
+     * If we were killed and restarted, pick up where we were.
+     *
+     * @see ServiceSnapshot
+     */
+    private void restoreSnapshot() {
+        String status = ServiceSnapshot.loadStatus(this);
+        if (status != null) {
+            WidgetState current = state.get();
+            if (current.status == null && state.compareAndSet(current, current.withStatus(status, null))) {
+                Log.i(TAG, "Restored user visible status: " + status);
+            }
+        }
+
+        fetchedLocation = ServiceSnapshot.loadLocation(this, ServiceSnapshot.FETCHED_LOCATION);
+
+        long fetchAlarm = ServiceSnapshot.loadFetchAlarm(this);
+        if (fetchAlarm != 0) {
+            // The alarm survived whatever killed us, no need to set it again
+            periodicUpdateSet.set(true);
+            Log.i(TAG, "Fetch alarm still set to go off in "
+                    + Util.msToTimeString(fetchAlarm - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * The screen came on or the user unlocked the device. Show the latest state and do any fetch we put off.
+     */
+    private void onScreenOn() {
+        screenOn = true;
+
+        if (renderDeferred.getAndSet(false)) {
+            Log.d(TAG, "Screen on, rendering deferred UI update");
+            updateUi();
+        }
+
+        UpdateReason deferred = fetchDeferred;
+        fetchDeferred = null;
+        if (deferred != null) {
+            Log.d(TAG, "Screen on, doing deferred fetch (" + deferred + ")");
+            requestUpdate(deferred);
+        }
+    }
+
+    /**
+     * Should we fetch even though the screen is off? Fetching is only worth it if the user is expected to look soon,
+     * or if our weather would otherwise be too old to show when the screen comes back on. If we don't fetch, the
+     * fetch alarm is moved to when one of those happens.
+     * <p>
+     * In on-demand mode we won't be around to notice the screen coming back on, so we always fetch.
+     *
+     * @see UsageModel
+     */
+    private boolean isWorthFetchingWhileScreenOff(@NotNull UpdateReason why) {
+        if (screenOn || isOnDemand(this)) {
+            return true;
+        }
+
+        UsageModel usage = getUsageModel();
+        long now = System.currentTimeMillis();
+        long prefetchTime = usage.getPrefetchTime();
+        if (prefetchTime != 0 && prefetchTime <= now) {
+            Log.d(TAG, "Screen is off, but the user usually looks about now, fetching");
+            usage.onDecision(UsageModel.Decision.PREFETCHED);
+            return true;
+        }
+
+        Weather weather = getWeather();
+        Calendar observationTime = weather == null ? null : weather.getObservationTime();
+        long expiryFetchTime =
+                FetchScheduler.getScreenOffFetchTime(observationTime == null ? 0 : observationTime.getTimeInMillis());
+        if (expiryFetchTime <= now) {
+            Log.d(TAG, "Screen is off, but our weather is about to get too old, fetching");
+            return true;
+        }
+
+        // Moving trumps any other reason for fetching once the screen comes on
+        if (fetchDeferred != UpdateReason.LOCATION_CHANGED) {
+            fetchDeferred = why;
+        }
+
+        long fetchTime;
+        boolean wakeup;
+        if (prefetchTime != 0 && prefetchTime < expiryFetchTime) {
+            // The device is likely asleep until the user looks, so this has to wake it up to get ahead of the look
+            fetchTime = prefetchTime;
+            wakeup = true;
+            usage.onDecision(UsageModel.Decision.DEFERRED_TO_LOOK);
+            Log.d(TAG, String.format("Screen is off, deferring fetch (%s) until %s before the user usually looks",
+                    why, Util.msToTimeString(UsageModel.PREFETCH_LEAD_MS)));
+        } else {
+            fetchTime = expiryFetchTime;
+            wakeup = false;
+            usage.onDecision(UsageModel.Decision.DEFERRED_TO_EXPIRY);
+            Log.d(TAG, String.format("Screen is off, deferring fetch (%s) until our weather is about to get too old",
+                    why));
+        }
+        Log.d(TAG, "Deferred fetch due in " + Util.msToTimeString(fetchTime - now));
+        if (periodicUpdateSet.get()) {
+            setFetchAlarm(fetchTime, wakeup);
+        }
+        return false;
+    }
+
     /**
      * Create a logcat command line for rotating logs into where {@link #getLogFile()} points.
      */
@@ -297,6 +525,30 @@ public class WidgetManager extends Service {
         return preferences;
     }
 
+    /**
+     * In on-demand mode, we do our work as events come in and then stop, rather than staying around waiting for
+     * events.
+     */
+    public static boolean isOnDemand(@NotNull Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean("onDemandPref", false);
+    }
+
+    public synchronized FetchScheduler getFetchScheduler() {
+        if (fetchScheduler == null) {
+            fetchScheduler = new FetchScheduler(FetchScheduler.getPreferences(this));
+        }
+
+        return fetchScheduler;
+    }
+
+    public synchronized UsageModel getUsageModel() {
+        if (usageModel == null) {
+            usageModel = new UsageModel(getSharedPreferences(UsageModel.PREFERENCES_NAME, MODE_PRIVATE));
+        }
+
+        return usageModel;
+    }
+
     /**
      * Update / initialize / shut down widgets.
      *
@@ -321,17 +573,26 @@ public class WidgetManager extends Service {
             return;
         }
 
-        synchronized (weatherLock) {
-            if (this.weather != null && this.weather.getAgeMinutes() <= weather.getAgeMinutes()) {
+        // If we dropped the weather to save memory, reload it so that we don't replace it with something older
+        getWeather();
+
+        String timestampedStatus = timestampStatus(status);
+        while (true) {
+            WidgetState current = state.get();
+            if (!current.isNewer(weather)) {
                 Log.e(TAG, "New weather older than current weather, dropping it");
                 return;
             }
 
-            this.weather = weather;
-
-            // Setting the status here will implicitly update the UI
-            setStatus(status);
+            if (state.compareAndSet(current, current.withWeather(weather).withStatus(timestampedStatus, null))) {
+                break;
+            }
         }
+        ServiceSnapshot.saveStatus(this, timestampedStatus);
+        Log.i(TAG, "Set user visible status: " + status);
+
+        // Show the new weather and status to the user
+        updateUi();
     }
 
     public File getWeatherJsonFile() {
@@ -377,12 +638,26 @@ public class WidgetManager extends Service {
      */
     @Nullable
     public Weather getWeather() {
-        synchronized (weatherLock) {
-            if (this.weather == null) {
-                this.weather = loadJsonWeather(getWeatherJsonFile());
-            }
+        Weather weather = state.get().weather;
+        if (weather != null || cachedWeatherLoaded) {
+            return weather;
+        }
 
-            return this.weather;
+        Weather cachedWeather = loadJsonWeather(getWeatherJsonFile());
+        cachedWeatherLoaded = true;
+        if (cachedWeather == null) {
+            return state.get().weather;
+        }
+
+        while (true) {
+            WidgetState current = state.get();
+            if (current.weather != null) {
+                // Somebody else got us some weather while we were loading
+                return current.weather;
+            }
+            if (state.compareAndSet(current, current.withWeather(cachedWeather))) {
+                return cachedWeather;
+            }
         }
     }
 
@@ -403,24 +678,39 @@ public class WidgetManager extends Service {
      * @param gpsaResolution A way to resolve Google Play Services API connection problems
      */
     public void setStatus(@NotNull String status, @Nullable PendingIntent gpsaResolution) {
-        synchronized (weatherLock) {
-            Calendar now = new GregorianCalendar();
+        String newStatus;
+        if (gpsaResolution == null) {
+            newStatus = timestampStatus(status);
+        } else {
+            // Google Play Services API problem resolutions are timeless
+            newStatus = status;
+        }
 
-            if (gpsaResolution == null) {
-                this.status = Util.toHoursString(now, DateFormat.is24HourFormat(this)) + " " + status;
-            } else {
-                // Google Play Services API problem resolutions are timeless
-                this.status = status;
-            }
-            Log.i(TAG, "Set user visible status: " + status);
+        WidgetState current;
+        do {
+            current = state.get();
+        } while (!state.compareAndSet(current, current.withStatus(newStatus, gpsaResolution)));
+        if (gpsaResolution == null) {
+            // Resolutions don't survive restarts, and neither should statuses telling the user to click them
+            ServiceSnapshot.saveStatus(this, newStatus);
+        }
+        Log.i(TAG, "Set user visible status: " + status);
+        Log.i(TAG, "Google Play Services problem resolution is "
+                + (gpsaResolution == null ? "null" : "non-null"));
 
-            this.gpsaResolution = gpsaResolution;
-            Log.i(TAG, "Google Play Services problem resolution is "
-                    + (gpsaResolution == null ? "null" : "non-null"));
+        // Show the new status to the user
+        updateUi();
+    }
 
-            // Show the new status to the user
-            updateUi();
-        }
+    /**
+     * Prefix a status string with the current time.
+     * <p>
+     * Note that this asks the system for the user's time format, so it mustn't be called while holding any locks.
+     */
+    @NotNull
+    private String timestampStatus(@NotNull String status) {
+        Calendar now = new GregorianCalendar();
+        return Util.toHoursString(now, DateFormat.is24HourFormat(this)) + " " + status;
     }
 
     /**
@@ -429,12 +719,11 @@ public class WidgetManager extends Service {
      * @param status A status string.
      */
     public void setStatus(@NotNull String status) {
-        synchronized (weatherLock) {
-            if (gpsaResolution != null) {
-                Log.w(TAG, "Implicitly nulling out GPSA resolution from: " + this.status);
-            }
-            setStatus(status, null);
+        WidgetState current = state.get();
+        if (current.gpsaResolution != null) {
+            Log.w(TAG, "Implicitly nulling out GPSA resolution from: " + current.status);
         }
+        setStatus(status, null);
     }
 
     /**
@@ -443,18 +732,12 @@ public class WidgetManager extends Service {
      * @return A status string.
      */
     public String getStatus() {
-        synchronized (weatherLock) {
-            if (status == null) {
-                setStatus("Initializing...");
-            }
-            return status;
-        }
-    }
-
-    private PendingIntent getGpsaResolution() {
-        synchronized (weatherLock) {
-            return gpsaResolution;
+        String status = state.get().status;
+        if (status == null) {
+            setStatus("Initializing...");
+            status = state.get().status;
         }
+        return status;
     }
 
     /**
@@ -477,14 +760,26 @@ public class WidgetManager extends Service {
         LOCATION_CHANGED,
 
         /**
-         * The display needs updating, or the regular-updates timer has expired.
+         * The display needs updating, for example because a widget was added.
          */
         DISPLAY_OR_TIMER,
 
         /**
          * We should try re-connecting to the Google Play Services API.
          */
-        GPSA_RECONNECT
+        GPSA_RECONNECT,
+
+        /**
+         * Our fetch alarm went off. Doesn't update the display unless the fetch gets us something new.
+         */
+        FETCH_TIMER,
+
+        /**
+         * What the widget shows has changed with time passing, re-render without fetching.
+         *
+         * @see WeatherPresenter#getNextChange()
+         */
+        PRESENTATION_TIMER
     }
 
     /**
@@ -495,105 +790,230 @@ public class WidgetManager extends Service {
     public void updateMeasurement(@NotNull UpdateReason why) {
         Log.d(TAG, "Weather observation fetch requested (" + why + ")...");
 
+        UpdateListener listener = updateListener.get();
         Location currentLocation;
-        synchronized (weatherLock) {
-            if (updateListener == null) {
-                Log.e(TAG, "Can't get location, update listener not available");
-                return;
-            }
-
-            currentLocation = updateListener.getLocation();
+        if (listener != null) {
+            currentLocation = listener.getLocation();
+        } else if (isOnDemand(this)) {
+            currentLocation = getOnDemandLocation();
+        } else {
+            Log.e(TAG, "Can't get location, update listener not available");
+            retryFetchLater();
+            return;
         }
+
         if (currentLocation == null) {
             Log.d(TAG, "Don't know where we are, can't fetch any weather");
+            retryFetchLater();
             return;
         }
 
-        if (why != UpdateReason.LOCATION_CHANGED) {
-            synchronized (weatherLock) {
-                if (weather != null && weather.getAgeMinutes() < 30) {
-                    Log.d(TAG,
-                            String.format("Current observation is %d minutes fresh and we haven't moved, skipping",
-                                    weather.getAgeMinutes()));
-                    return;
-                }
+        FetchScheduler scheduler = getFetchScheduler();
+        if (why == UpdateReason.LOCATION_CHANGED) {
+            Log.d(TAG, "We moved, fetching regardless of schedule");
+        } else if (why == UpdateReason.NETWORK_AVAILABLE && scheduler.hasLastFetchFailed()) {
+            Log.d(TAG, "Network is back after a failed fetch, fetching regardless of schedule");
+        } else if (!scheduler.isFetchDue()) {
+            Log.d(TAG, String.format("Next fetch scheduled in %s and we haven't moved, skipping",
+                    Util.msToTimeString(scheduler.getNextFetch() - System.currentTimeMillis())));
+            return;
+        }
+
+        if (!isWorthFetchingWhileScreenOff(why)) {
+            return;
+        }
+
+        TemperatureFetcher.Handle previousFetch = currentFetch;
+        if (previousFetch != null && !previousFetch.isFinished()) {
+            if (why != UpdateReason.LOCATION_CHANGED) {
+                Log.d(TAG, "Fetch already in progress (" + previousFetch.getStage() + "), skipping");
+                return;
             }
+
+            Log.d(TAG, "Cancelling fetch for old location (" + previousFetch.getStage() + ")");
+            previousFetch.cancel();
         }
 
-        temperatureFetcher.fetchTemperature(
+        fetchedLocation = currentLocation;
+        ServiceSnapshot.saveLocation(this, ServiceSnapshot.FETCHED_LOCATION, currentLocation);
+        currentFetch = temperatureFetcher.fetchTemperature(
             currentLocation.getLatitude(),
             currentLocation.getLongitude());
     }
 
+    /**
+     * We couldn't even start a fetch. Since fetch alarms are re-armed only when a fetch is done, make sure we have
+     * one for trying again.
+     */
+    private void retryFetchLater() {
+        if (!periodicUpdateSet.get()) {
+            return;
+        }
+
+        if (!getFetchScheduler().isFetchDue()) {
+            // The alarm for our next scheduled fetch is still pending
+            return;
+        }
+
+        setFetchAlarm(System.currentTimeMillis() + FetchScheduler.DEFAULT_INTERVAL_MS);
+    }
+
+    /**
+     * Where were we when we last started fetching the weather?
+     *
+     * @return The location of our latest fetch, or null if we haven't fetched anything yet.
+     */
+    @Nullable
+    public Location getFetchedLocation() {
+        return fetchedLocation;
+    }
+
+    /**
+     * Called by {@link TemperatureFetcher} after each fetch attempt.
+     *
+     * @param weather What we got, or null if the fetch failed
+     */
+    void onFetchDone(@Nullable Weather weather) {
+        FetchScheduler scheduler = getFetchScheduler();
+        long nextFetch;
+        if (weather != null) {
+            BroadcastFilter.onFetchSucceeded(this);
+            nextFetch = scheduler.onObservation(weather);
+        } else {
+            nextFetch = scheduler.onFetchFailed();
+        }
+
+        if (periodicUpdateSet.get()) {
+            setFetchAlarm(nextFetch);
+        }
+    }
+
     /**
      * Return widget IDs for all active Thermometer Widgets.
      *
-     * @return widget IDs for all active Thermometer Widgets.
+     * @return Sorted widget IDs for all active Thermometer Widgets.
      *
-     * @see AppWidgetManager#getAppWidgetIds(ComponentName)
+     * @see WidgetIdRegistry
      */
     private int[] getWidgetIds() {
-        AppWidgetManager manager = AppWidgetManager.getInstance(this);
-        assert manager != null;
-
-        int[] appWidgetIds =
-            manager.getAppWidgetIds(
-                new ComponentName(
-                    "net.launchpad.thermometer",
-                    ThermometerWidget.class.getCanonicalName()));
+        int[] appWidgetIds = WidgetIdRegistry.getWidgetIds(this);
         Log.d(TAG, "Got widget IDs: " + Arrays.toString(appWidgetIds));
         return appWidgetIds;
     }
 
     /**
-     * Enqueue a widget display update.
+     * How big are our widgets on screen right now?
+     *
+     * @return A size in pixels, or null if we don't know or if our widgets have different sizes
      */
-    public void updateUi() {
-        if (!uiUpdated) {
-            // The first time we do this in the foreground to get something on screen as soon as possible
-            Log.d(TAG, "Doing UI update in foreground the first time");
-            doUpdateUi();
-            uiUpdated = true;
-            return;
+    @Nullable
+    @SuppressLint("NewApi")
+    private Point getWidgetSize(@NotNull int[] widgetIds) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // AppWidgetManager.getAppWidgetOptions() is API level 16
+            return null;
         }
 
-        boolean posted = handler.post(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(TAG, "Now performing enqueued UI update");
-                doUpdateUi();
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
+        assert appWidgetManager != null;
+        boolean portrait = getResources().getConfiguration().orientation != Configuration.ORIENTATION_LANDSCAPE;
+        float density = getResources().getDisplayMetrics().density;
+
+        Point returnMe = null;
+        for (int widgetId : widgetIds) {
+            Bundle options = appWidgetManager.getAppWidgetOptions(widgetId);
+
+            // The launcher tells us the sizes for both orientations; narrow and tall in portrait, wide and low in
+            // landscape
+            int widthDp = options.getInt(portrait
+                    ? AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH
+                    : AppWidgetManager.OPTION_APPWIDGET_MAX_WIDTH);
+            int heightDp = options.getInt(portrait
+                    ? AppWidgetManager.OPTION_APPWIDGET_MAX_HEIGHT
+                    : AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT);
+            if (widthDp <= 0 || heightDp <= 0) {
+                Log.d(TAG, "Size of widget " + widgetId + " unknown");
+                return null;
             }
-        });
 
-        if (posted) {
-            Log.d(TAG, "Background UI update enqueued");
-        } else {
-            Log.w(TAG, "Enqueueing UI update failed, running in foreground");
-            doUpdateUi();
+            Point size = new Point(Math.round(widthDp * density), Math.round(heightDp * density));
+            if (returnMe != null && !returnMe.equals(size)) {
+                Log.d(TAG, String.format("Widgets have different sizes, %dx%d and %dx%d",
+                        returnMe.x, returnMe.y, size.x, size.y));
+                return null;
+            }
+            returnMe = size;
+        }
+        return returnMe;
+    }
+
+    /**
+     * How many widget display updates have been asked for through {@link #updateUi()}?
+     */
+    int getUiUpdatesRequested() {
+        return renderThread.getRequestedCount();
+    }
+
+    /**
+     * How many widget display updates have actually been rendered? Requests arriving close together are merged, so
+     * this is usually less than {@link #getUiUpdatesRequested()}.
+     */
+    int getUiUpdatesPerformed() {
+        return renderThread.getPerformedCount();
+    }
+
+    /**
+     * Enqueue a widget display update.
+     * <p>
+     * The update is done on {@link #renderThread}, and any update enqueued but not yet started will be replaced by
+     * this one. Updates are rate limited, so this one may be deferred for up to a second. While the screen is off,
+     * updates are held back until it comes on.
+     */
+    public void updateUi() {
+        // Make sure we have a status to show
+        getStatus();
+
+        if (!screenOn && !isOnDemand(this)) {
+            // In on-demand mode we'll be gone by the time the screen comes on, so only defer when resident
+            if (!renderDeferred.getAndSet(true)) {
+                Log.d(TAG, "Screen is off, deferring UI update until it comes on");
+            }
+            return;
         }
+
+        renderThread.render(state.get());
     }
 
     /**
-     * Refresh the widget display.
+     * Refresh the widget display. Called on {@link #renderThread}.
      *
      * @see #updateUi()
      */
-    private void doUpdateUi() {
-        Log.d(TAG, "Updating widget display...");
+    private void doUpdateUi(@NotNull WidgetState state) {
+        Log.d(TAG, "Updating widget display: " + state);
+        assert state.status != null;
+
+        Weather weather = state.weather;
+        if (weather == null) {
+            // Might be in our on-disk cache
+            weather = getWeather();
+        }
 
-        WeatherPresenter weatherPresenter = new WeatherPresenter(getWeather(), getStatus());
+        WeatherPresenter weatherPresenter = new WeatherPresenter(weather, state.status);
         weatherPresenter.setShowMetadata(getPreferences().getBoolean("showMetadataPref", false));
         weatherPresenter.setWithWindChill(getPreferences().getBoolean("windChillPref", false));
-        weatherPresenter.setForceShowExcuse(getGpsaResolution() != null);
+        weatherPresenter.setForceShowExcuse(state.gpsaResolution != null);
         weatherPresenter.setUseCelsius(!Util.isFahrenheit(getPreferences().getString("temperatureUnitPref", "Celsius")));
         weatherPresenter.setUse24HoursFormat(DateFormat.is24HourFormat(this));
+        stabilizer.setBand(getStabilityBand());
+        weatherPresenter.setStabilizer(stabilizer);
 
         int textColor = getPreferences().getInt("textColorPref", Color.WHITE);
-        RemoteViews remoteViews =
-                weatherPresenter.createRemoteViews(this, textColor);
+        WidgetContent content =
+                weatherPresenter.createWidgetContent(this, textColor, getWidgetSize(getWidgetIds()));
 
         PendingIntent pendingIntent;
-        PendingIntent resolution = getGpsaResolution();
+        PendingIntent resolution = state.gpsaResolution;
         if (resolution != null) {
             pendingIntent = resolution;
         } else {
@@ -601,28 +1021,113 @@ public class WidgetManager extends Service {
             Intent intent = new Intent(this, ThermometerActions.class);
             pendingIntent = PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
         }
-        remoteViews.setOnClickPendingIntent(R.id.AllOfIt, pendingIntent);
+        content = content.withClickIntent(pendingIntent);
+
+        updateUi(content);
 
-        updateUi(remoteViews);
+        long nextChange = weatherPresenter.getNextChange();
+        if (nextChange != presentationAlarm) {
+            setPresentationAlarm(nextChange);
+        }
 
         Log.d(TAG, "UI updated");
     }
 
-    private void updateUi(RemoteViews remoteViews) {
+    /**
+     * Create an intent for re-rendering. Has a request code of its own, see {@link #createLocationIntent()}.
+     */
+    @NotNull
+    private PendingIntent createPresentationIntent() {
+        Intent intent = new Intent(this, WidgetManager.class);
+        intent.putExtra(UPDATE_REASON, UpdateReason.PRESENTATION_TIMER.name());
+        return PendingIntent.getService(this, 2, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Wake us up for re-rendering when what the widget shows changes by itself. Replaces any previously set
+     * presentation alarm, so there's never more than one. Called on {@link #renderThread}.
+     *
+     * @param when A {@link System#currentTimeMillis()} time, or 0 to cancel the alarm
+     */
+    @SuppressLint("NewApi")
+    private void setPresentationAlarm(long when) {
+        AlarmManager alarmManager = (AlarmManager)getSystemService(Context.ALARM_SERVICE);
+        presentationAlarm = when;
+        if (when == 0) {
+            alarmManager.cancel(createPresentationIntent());
+            Log.d(TAG, "Presentation won't change by itself, presentation alarm cancelled");
+            return;
+        }
+
+        // Not a wakeup alarm; if the device is asleep, nobody is looking at the widget anyway
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setExact(AlarmManager.RTC, when, createPresentationIntent());
+        } else {
+            alarmManager.set(AlarmManager.RTC, when, createPresentationIntent());
+        }
+        Log.d(TAG, "Presentation alarm set to go off in " + Util.msToTimeString(when - System.currentTimeMillis()));
+    }
+
+    /**
+     * How far past a rounding boundary must the temperature go before we show it changing?
+     *
+     * @return A band in degrees for {@link WeatherPresenter.Stabilizer}
+     */
+    private double getStabilityBand() {
+        String band = getPreferences().getString("stabilityPref", null);
+        if (band == null) {
+            return WeatherPresenter.Stabilizer.DEFAULT_BAND;
+        }
+
+        try {
+            return Double.parseDouble(band);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Unparsable temperature stability: <" + band + ">");
+            return WeatherPresenter.Stabilizer.DEFAULT_BAND;
+        }
+    }
+
+    /**
+     * Send new content to all our widgets.
+     * <p>
+     * If our widgets are the same as last time and only the subtext or the click target changed, only the changes
+     * are sent. Called on {@link #renderThread}.
+     */
+    private void updateUi(@NotNull WidgetContent content) {
         AppWidgetManager appWidgetManager =
                 AppWidgetManager.getInstance(this);
         assert appWidgetManager != null;
 
-        synchronized (weatherLock) {
-            int[] widgetIds = getWidgetIds();
-            if (widgetIds.length == 0) {
-                // No widgets to update, shut down
-                close();
-            }
-            for (int widgetId : widgetIds) {
-                appWidgetManager.updateAppWidget(widgetId, remoteViews);
+        int[] widgetIds = getWidgetIds();
+        if (widgetIds.length == 0) {
+            // No widgets to update, shut down
+            close();
+            return;
+        }
+
+        String packageName = ThermometerWidget.class.getPackage().getName();
+        WidgetContent previous = shownContent;
+        if (previous == null || !Arrays.equals(widgetIds, shownWidgetIds)) {
+            // Some widget may not have shown anything yet, partial updates won't do
+            Log.d(TAG, "Full widget update to " + content);
+            appWidgetManager.updateAppWidget(widgetIds, content.createRemoteViews(packageName));
+        } else if (!content.canPartiallyUpdate(previous)) {
+            Log.d(TAG, String.format("Full widget update for %s to %s",
+                    content.getChanges(previous), content));
+            appWidgetManager.updateAppWidget(widgetIds, content.createRemoteViews(packageName));
+        } else {
+            EnumSet<WidgetContent.Change> changes = content.getChanges(previous);
+            if (changes.isEmpty()) {
+                Log.d(TAG, "Widget content unchanged, not updating: " + content);
+                return;
             }
+
+            Log.d(TAG, String.format("Partial widget update for %s to %s", changes, content));
+            appWidgetManager.partiallyUpdateAppWidget(widgetIds, content.createDelta(packageName, previous));
         }
+
+        shownContent = content;
+        shownWidgetIds = widgetIds;
     }
 
     /**
@@ -634,24 +1139,179 @@ public class WidgetManager extends Service {
     private void onUpdateInternal(Intent intent) {
         Log.d(TAG, "onUpdate() called");
 
-        synchronized (weatherLock) {
-            if (updateListener == null) {
-                Log.d(TAG, "Have no update listener, registering a new one");
-                updateListener = new UpdateListener(this);
-
-                // Fill in unset preferences from defaults
-                PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
-            } else {
-                Log.d(TAG, "Not touching existing update listener");
+        if (updateListener.get() == null) {
+            Log.d(TAG, "Have no update listener, registering a new one");
+            UpdateListener newListener = new UpdateListener(this);
+            if (!updateListener.compareAndSet(null, newListener)) {
+                Log.w(TAG, "Somebody else registered an update listener, dropping ours");
+                newListener.close();
             }
 
-            setPeriodicUpdatesEnabled(true);
+            // Fill in unset preferences from defaults
+            PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
+        } else {
+            Log.d(TAG, "Not touching existing update listener");
         }
 
+        setPeriodicUpdatesEnabled(true);
+
+        // In case we were in on-demand mode before, our update listener takes care of locations now
+        setLocationTriggersEnabled(false);
+
         // Schedule a temperature update
         scheduleTemperatureUpdate(intent);
     }
 
+    /**
+     * Do what an incoming event asks for without staying resident, and stop when done.
+     * <p>
+     * Dispatched from {@link #onStartCommand(Intent, int, int)} in on-demand mode. Nothing is kept in memory between
+     * events; everything we know comes from what earlier invocations persisted.
+     *
+     * @param intent The intent triggering this request.
+     * @param startId The start ID of the intent.
+     */
+    private void onDemandUpdate(@Nullable Intent intent, int startId) {
+        // Count before publishing the start ID, finishOnDemandWork() depends on it
+        onDemandWork.incrementAndGet();
+        lastStartId = startId;
+
+        UpdateListener listener = updateListener.getAndSet(null);
+        if (listener != null) {
+            Log.i(TAG, "Switching to on-demand mode, disconnecting from the location service");
+            listener.close();
+            wakeups.cancel();
+        }
+
+        setPeriodicUpdatesEnabled(true);
+        setLocationTriggersEnabled(true);
+
+        UpdateReason why = getUpdateReason(intent);
+        Log.d(TAG, "On-demand update (" + why + ")");
+        if (why == UpdateReason.LOCATION_CHANGED && !onDemandLocationChanged(intent)) {
+            // Not worth a fetch by itself, but the fetch schedule still applies
+            why = UpdateReason.UNKNOWN;
+        }
+        if (why == UpdateReason.DISPLAY_OR_TIMER || why == UpdateReason.PRESENTATION_TIMER) {
+            updateUi();
+        }
+        updateMeasurement(why);
+
+        Runnable done = new Runnable() {
+            @Override
+            public void run() {
+                finishOnDemandWork();
+            }
+        };
+        TemperatureFetcher.Handle fetch = currentFetch;
+        if (fetch != null) {
+            fetch.whenFinished(done);
+        } else {
+            done.run();
+        }
+    }
+
+    /**
+     * Stop once all on-demand work is done.
+     */
+    private void finishOnDemandWork() {
+        // Let any pending widget update through before stopping
+        renderThread.flush(new Runnable() {
+            @Override
+            public void run() {
+                if (onDemandWork.decrementAndGet() > 0) {
+                    return;
+                }
+
+                // If another start command has arrived since we read lastStartId, this won't stop us
+                Log.d(TAG, "On-demand work done, stopping");
+                stopSelf(lastStartId);
+            }
+        });
+    }
+
+    /**
+     * We got a location update through {@link #setLocationTriggersEnabled(boolean)}.
+     *
+     * @return True if we moved far enough to fetch new weather.
+     */
+    private boolean onDemandLocationChanged(@Nullable Intent intent) {
+        Location location = null;
+        if (intent != null) {
+            location = intent.getParcelableExtra(LocationManager.KEY_LOCATION_CHANGED);
+        }
+        if (location == null) {
+            Log.w(TAG, "Location update without any location");
+            return false;
+        }
+
+        ServiceSnapshot.saveLocation(this, ServiceSnapshot.CACHED_LOCATION, location);
+        return UpdateListener.isWorthFetchingFor(location, fetchedLocation, getWeather());
+    }
+
+    /**
+     * Where are we? Used in on-demand mode where we have no {@link UpdateListener}.
+     *
+     * @return The most recent of the location we persisted and the system's last known network location, or null if
+     * we have neither.
+     */
+    @Nullable
+    private Location getOnDemandLocation() {
+        Location cachedLocation = ServiceSnapshot.loadLocation(this, ServiceSnapshot.CACHED_LOCATION);
+
+        LocationManager locationManager = (LocationManager)getSystemService(Context.LOCATION_SERVICE);
+        if (locationManager.getProvider(LocationManager.NETWORK_PROVIDER) == null) {
+            return cachedLocation;
+        }
+
+        Location lastKnownLocation = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+        if (lastKnownLocation == null) {
+            return cachedLocation;
+        }
+        if (cachedLocation != null && cachedLocation.getTime() >= lastKnownLocation.getTime()) {
+            return cachedLocation;
+        }
+
+        ServiceSnapshot.saveLocation(this, ServiceSnapshot.CACHED_LOCATION, lastKnownLocation);
+        return lastKnownLocation;
+    }
+
+    /**
+     * Create an intent for starting us when we move. Has a request code of its own since intents differing only in
+     * extras would otherwise share a {@link PendingIntent} with {@link #createFetchIntent()}.
+     */
+    @NotNull
+    private PendingIntent createLocationIntent() {
+        Intent intent = new Intent(this, WidgetManager.class);
+        intent.putExtra(UPDATE_REASON, UpdateReason.LOCATION_CHANGED.name());
+        return PendingIntent.getService(this, 1, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    /**
+     * Enable / disable starting us on location changes. Used in on-demand mode where we have no
+     * {@link UpdateListener}.
+     */
+    private void setLocationTriggersEnabled(boolean enabled) {
+        LocationManager locationManager = (LocationManager)getSystemService(Context.LOCATION_SERVICE);
+        if (!enabled) {
+            locationManager.removeUpdates(createLocationIntent());
+            return;
+        }
+
+        if (locationManager.getProvider(LocationManager.NETWORK_PROVIDER) == null) {
+            Log.w(TAG, "Network provider not available on this device, won't notice moves");
+            return;
+        }
+
+        // Shorter moves never get us weather from another station, UpdateListener.isWorthFetchingFor() decides about
+        // the longer ones
+        locationManager.requestLocationUpdates(
+                LocationManager.NETWORK_PROVIDER,
+                LocationPolicy.MAX_INTERVAL_MS,
+                UpdateListener.MIN_MOVE_METERS,
+                createLocationIntent());
+    }
+
     /**
      * Schedule a temperature update because of an incoming event.
      * <p>
@@ -660,6 +1320,14 @@ public class WidgetManager extends Service {
      * @param intent The intent that triggered the update.
      */
     void scheduleTemperatureUpdate(@Nullable Intent intent) {
+        requestUpdate(getUpdateReason(intent));
+    }
+
+    /**
+     * Why were we sent an intent?
+     */
+    @NotNull
+    private static UpdateReason getUpdateReason(@Nullable Intent intent) {
         UpdateReason why;
         String reasonName = null;
         try {
@@ -676,17 +1344,40 @@ public class WidgetManager extends Service {
             why = UpdateReason.UNKNOWN;
         }
 
-        if (why == UpdateReason.GPSA_RECONNECT) {
-            if (updateListener != null) {
-                updateListener.reconnectGpsa();
+        return why;
+    }
+
+    /**
+     * Something wants us to wake up and do some work.
+     * <p>
+     * Background requests arriving within {@link WakeupConsolidator#WINDOW_MS} of each other are handled together by
+     * {@link #handleWakeup(EnumSet)}. Requests the user is waiting for are handled right away.
+     *
+     * @param why Why we should wake up.
+     */
+    public void requestUpdate(@NotNull UpdateReason why) {
+        Log.d(TAG, "Wakeup requested (" + why + ")");
+        wakeups.trigger(why);
+    }
+
+    /**
+     * Do whatever work a window of wakeup requests asked for. Called on the main thread.
+     *
+     * @param reasons All reasons we got for waking up since the last time we did.
+     */
+    private void handleWakeup(@NotNull EnumSet<UpdateReason> reasons) {
+        Log.d(TAG, "Woken up for " + reasons);
+
+        if (reasons.contains(UpdateReason.GPSA_RECONNECT)) {
+            UpdateListener listener = updateListener.get();
+            if (listener != null) {
+                listener.reconnectGpsa();
             } else {
                 Log.i(TAG, "Ignoring Google Play Services API change");
             }
-            return;
         }
 
-        if (why == UpdateReason.DISPLAY_OR_TIMER) {
-            // This can mean another widget was added; make sure it's fresh
+        if (reasons.contains(UpdateReason.DISPLAY_OR_TIMER) || reasons.contains(UpdateReason.FETCH_TIMER)) {
             display_or_timer_count++;
             long dtHours = (System.currentTimeMillis() - serviceStartTimestamp) / (1000 * 60 * 60);
             if (dtHours == 0) {
@@ -696,65 +1387,277 @@ public class WidgetManager extends Service {
                     display_or_timer_count,
                     dtHours,
                     display_or_timer_count / (double)dtHours));
+            Log.d(TAG, String.format("%d wakeup requests merged into %d wakeups at %f wakeups/hour",
+                    wakeups.getTriggerCount(), wakeups.getWakeupCount(), wakeups.getWakeupsPerHour()));
+            Log.d(TAG, String.format("%d UI updates requested, %d performed",
+                    getUiUpdatesRequested(), getUiUpdatesPerformed()));
+            Log.d(TAG, String.format("%d temperature changes held back by rounding hysteresis",
+                    stabilizer.getHeldBackCount()));
+            Log.d(TAG, String.format("Widget IDs verified with the system %d times",
+                    WidgetIdRegistry.getVerificationCount()));
+            Log.d(TAG, "Dropped broadcasts: " + BroadcastFilter.describeDropCounts(this));
+            UpdateListener listener = updateListener.get();
+            if (listener != null) {
+                Log.d(TAG, "Location service: " + listener.describeGpsaConnects());
+            }
+        }
+
+        if (reasons.contains(UpdateReason.DISPLAY_OR_TIMER) || reasons.contains(UpdateReason.PRESENTATION_TIMER)) {
+            // DISPLAY_OR_TIMER can mean another widget was added; make sure it's fresh
             updateUi();
         }
 
-        updateMeasurement(why);
+        // One fetch covers all reasons, let the one most likely to bypass the fetch schedule speak for them
+        for (UpdateReason why : new UpdateReason[] {
+                UpdateReason.LOCATION_CHANGED,
+                UpdateReason.NETWORK_AVAILABLE,
+                UpdateReason.DISPLAY_OR_TIMER,
+                UpdateReason.FETCH_TIMER,
+                UpdateReason.UNKNOWN })
+        {
+            if (reasons.contains(why)) {
+                updateMeasurement(why);
+                return;
+            }
+        }
+    }
+
+    @NotNull
+    private PendingIntent createFetchIntent() {
+        Intent intent = new Intent(this, WidgetManager.class);
+        intent.putExtra(UPDATE_REASON, UpdateReason.FETCH_TIMER.name());
+        return PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
 
     /**
-     * Enable / disable periodic updates.
+     * Wake us up for fetching the weather. Replaces any previously set fetch alarm.
      *
-     * @param enabled True to enable periodic updates, false to disable them.
+     * @param when A {@link System#currentTimeMillis()} time
      */
-    private void setPeriodicUpdatesEnabled(boolean enabled) {
-        // Set up repeating updates
-        Intent intent = new Intent(this, WidgetManager.class);
-        PendingIntent updateIntent =
-            PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    private void setFetchAlarm(long when) {
+        // Not a wakeup alarm; if the device is asleep, nobody is looking at the widget anyway
+        setFetchAlarm(when, false);
+    }
 
+    /**
+     * Wake us up for fetching the weather. Replaces any previously set fetch alarm.
+     *
+     * @param when A {@link System#currentTimeMillis()} time
+     * @param wakeup True to wake the device up if it's asleep. Costs battery, so only for fetching ahead of when we
+     * expect the user to look.
+     */
+    @SuppressLint("NewApi")
+    private void setFetchAlarm(long when, boolean wakeup) {
         AlarmManager alarmManager =
             (AlarmManager)getSystemService(Context.ALARM_SERVICE);
-        synchronized (weatherLock) {
-            if (enabled) {
-                if (!periodicUpdateSet) {
-                    alarmManager.setInexactRepeating(
-                        AlarmManager.ELAPSED_REALTIME,
-                        0,
-                        AlarmManager.INTERVAL_HALF_HOUR,
-                        updateIntent);
-                    periodicUpdateSet = true;
+
+        int type = wakeup ? AlarmManager.RTC_WAKEUP : AlarmManager.RTC;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // From KitKat on, set() is inexact
+            alarmManager.setExact(type, when, createFetchIntent());
+        } else {
+            alarmManager.set(type, when, createFetchIntent());
+        }
+        ServiceSnapshot.saveFetchAlarm(this, when);
+        Log.d(TAG, String.format("Fetch alarm set to go off in %s%s",
+                Util.msToTimeString(when - System.currentTimeMillis()), wakeup ? ", waking the device up" : ""));
+    }
+
+    /**
+     * Enable / disable periodic updates.
+     *
+     * @param enabled True to enable periodic updates, false to disable them.
+     */
+    private void setPeriodicUpdatesEnabled(boolean enabled) {
+        if (enabled) {
+            if (periodicUpdateSet.compareAndSet(false, true)) {
+                long nextFetch = getFetchScheduler().getNextFetch();
+                if (nextFetch < System.currentTimeMillis()) {
+                    // A fetch is probably in progress, and it will set a new alarm when it's done. This is in case it
+                    // doesn't.
+                    nextFetch = System.currentTimeMillis() + FetchScheduler.DEFAULT_INTERVAL_MS;
                 }
-            } else {
-                alarmManager.cancel(updateIntent);
-                periodicUpdateSet = false;
+                setFetchAlarm(nextFetch);
             }
+        } else {
+            periodicUpdateSet.set(false);
+
+            AlarmManager alarmManager =
+                (AlarmManager)getSystemService(Context.ALARM_SERVICE);
+            alarmManager.cancel(createFetchIntent());
+            ServiceSnapshot.saveFetchAlarm(this, 0);
         }
     }
 
     /**
-     * Shut down.
+     * How much of our in-memory state to release when the system is short on memory. Each level also releases
+     * everything the levels before it do.
      */
-    private void close() {
-        Log.d(TAG, "Shutting down...");
+    enum Shedding {
+        NOTHING,
 
-        synchronized (weatherLock) {
-            setPeriodicUpdatesEnabled(false);
+        /**
+         * Glyph atlases, subtext layouts and what our widgets were last told to show. Rebuilt on the next render.
+         */
+        RENDER_CACHES,
+
+        /**
+         * The latest weather. Reloaded from {@link #getWeatherJsonFile()} when next needed.
+         */
+        WEATHER,
+
+        /**
+         * What {@link UpdateListener} knows about where we are. Reloaded from {@link ServiceSnapshot} when next needed.
+         */
+        LOCATION_CACHES
+    }
 
-            if (updateListener == null) {
-                Log.w(TAG,
-                "No preference change listener found, should have been registered in onUpdate()");
+    /**
+     * Decide what to release for an {@link #onTrimMemory(int)} level.
+     * <p>
+     * Has default protection for testing purposes.
+     */
+    @NotNull
+    static Shedding getShedding(int level) {
+        // Background levels: we're on the system's list of processes to kill, and the higher the level the sooner
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return Shedding.LOCATION_CACHES;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            return Shedding.WEATHER;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return Shedding.RENDER_CACHES;
+        }
+
+        // Running levels: we're not about to be killed, but the device is short on memory
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return Shedding.LOCATION_CACHES;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return Shedding.WEATHER;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return Shedding.RENDER_CACHES;
+        }
+        return Shedding.NOTHING;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        Shedding shedding = getShedding(level);
+        Log.i(TAG, String.format("Trim memory level %d, releasing %s", level, shedding));
+        shed(shedding);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        Log.i(TAG, "Low on memory, releasing everything we can");
+        shed(Shedding.LOCATION_CACHES);
+    }
+
+    /**
+     * Release in-memory state that we can rebuild or reload later. Called on the main thread.
+     */
+    private void shed(@NotNull Shedding shedding) {
+        if (shedding == Shedding.NOTHING) {
+            return;
+        }
+
+        Log.i(TAG, "Memory before shedding: " + describeMemoryFootprint());
+
+        // Render artefacts are only touched by the render thread
+        renderThread.post(new Runnable() {
+            @Override
+            public void run() {
+                shownContent = null;
+                shownWidgetIds = null;
+                long freed = AndroidTextMeasurer.clearCaches();
+                Log.i(TAG, String.format("Render caches dropped, %dkB of bitmaps freed", freed / 1024));
             }
+        });
 
-            if (updateListener != null) {
-                updateListener.close();
-                updateListener = null;
-            } else {
-                Log.w(TAG, "No update listener available, can't shut it down");
+        if (shedding.compareTo(Shedding.WEATHER) >= 0) {
+            dropWeather();
+        }
+
+        if (shedding.compareTo(Shedding.LOCATION_CACHES) >= 0) {
+            UpdateListener listener = updateListener.get();
+            if (listener != null) {
+                listener.trimMemory();
+                Log.i(TAG, "Location caches dropped");
+            }
+        }
+    }
+
+    /**
+     * Forget the weather; {@link #getWeather()} will reload it from {@link #getWeatherJsonFile()}.
+     */
+    private void dropWeather() {
+        TemperatureFetcher.Handle fetch = currentFetch;
+        if (fetch != null && !fetch.isFinished()) {
+            // The fetched weather may not have been written to disk yet
+            Log.i(TAG, "Fetch in progress, keeping the weather");
+            return;
+        }
+
+        // Clear this first, or getWeather() could find neither weather nor any reason to load it
+        cachedWeatherLoaded = false;
+
+        WidgetState current;
+        do {
+            current = state.get();
+            if (current.weather == null) {
+                return;
             }
+        } while (!state.compareAndSet(current, current.withoutWeather()));
+
+        Log.i(TAG, "Weather dropped, will be reloaded from " + getWeatherJsonFile().getName());
+    }
+
+    /**
+     * Describe how much memory we're using. The bitmaps are our glyph atlases; on the Android versions we support
+     * their pixels are part of the Java heap figure.
+     */
+    @NotNull
+    static String describeMemoryFootprint() {
+        Runtime runtime = Runtime.getRuntime();
+        long javaUsed = runtime.totalMemory() - runtime.freeMemory();
+        return String.format("Java heap %dkB used of %dkB max, native heap %dkB, glyph atlas bitmaps %dkB",
+                javaUsed / 1024,
+                runtime.maxMemory() / 1024,
+                Debug.getNativeHeapAllocatedSize() / 1024,
+                GlyphAtlas.getByteCount() / 1024);
+    }
+
+    /**
+     * Shut down.
+     */
+    private void close() {
+        Log.d(TAG, "Shutting down...");
+
+        setPeriodicUpdatesEnabled(false);
+        setLocationTriggersEnabled(false);
+        AlarmManager alarmManager = (AlarmManager)getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(createPresentationIntent());
+        wakeups.cancel();
+        TemperatureFetcher.Handle fetch = currentFetch;
+        if (fetch != null) {
+            fetch.cancel();
+        }
 
-            stopSelf();
+        UpdateListener listener = updateListener.getAndSet(null);
+        if (listener != null) {
+            listener.close();
+        } else {
+            Log.w(TAG, "No update listener available, can't shut it down");
         }
+
+        stopSelf();
     }
 
     @Override
@@ -770,6 +1673,11 @@ public class WidgetManager extends Service {
             }
             // We have no widgets, shut down and drop out
             close();
+        } else if (isOnDemand(this)) {
+            onDemandUpdate(intent, startId);
+
+            // We'll be started again when there's something to do
+            return START_NOT_STICKY;
         } else {
             onUpdateInternal(intent);
         }
@@ -782,6 +1690,9 @@ public class WidgetManager extends Service {
     public void onDestroy() {
         super.onDestroy();
 
+        unregisterReceiver(screenReceiver);
+        renderThread.quit();
+
         if (logcat != null) {
             logcat.destroy();
             logcat = null;
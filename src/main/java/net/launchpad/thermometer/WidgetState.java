@@ -0,0 +1,78 @@
+package net.launchpad.thermometer;
+
+import android.app.PendingIntent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Everything {@link WidgetManager} knows about what the widget should show.
+ * <p>
+ * Instances are immutable. Changing the state is done by creating a new instance using one of the with*() methods and
+ * publishing it in place of the old one.
+ */
+final class WidgetState {
+    /**
+     * Nothing known yet.
+     */
+    static final WidgetState INITIAL = new WidgetState(null, null, null);
+
+    /**
+     * The latest weather measurement.
+     */
+    @Nullable
+    final Weather weather;
+
+    /**
+     * How we're currently doing on getting a good temperature reading for the user. Null until first set.
+     */
+    @Nullable
+    final String status;
+
+    /**
+     * If non-null, we're having problems with the Google Play Services API, and invoking this intent should resolve
+     * them.
+     */
+    @Nullable
+    final PendingIntent gpsaResolution;
+
+    private WidgetState(@Nullable Weather weather, @Nullable String status, @Nullable PendingIntent gpsaResolution) {
+        this.weather = weather;
+        this.status = status;
+        this.gpsaResolution = gpsaResolution;
+    }
+
+    @NotNull
+    WidgetState withWeather(@NotNull Weather weather) {
+        return new WidgetState(weather, status, gpsaResolution);
+    }
+
+    /**
+     * Forget the weather, for when we're short on memory. The weather can be reloaded from disk.
+     */
+    @NotNull
+    WidgetState withoutWeather() {
+        return new WidgetState(null, status, gpsaResolution);
+    }
+
+    /**
+     * @param status A user visible status string
+     * @param gpsaResolution A way to resolve Google Play Services API connection problems
+     */
+    @NotNull
+    WidgetState withStatus(@NotNull String status, @Nullable PendingIntent gpsaResolution) {
+        return new WidgetState(weather, status, gpsaResolution);
+    }
+
+    /**
+     * Is weather newer than the weather in this state?
+     */
+    boolean isNewer(@NotNull Weather weather) {
+        return this.weather == null || this.weather.getAgeMinutes() > weather.getAgeMinutes();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("status=<%s>, gpsaResolution=%s, weather=%s",
+                status, gpsaResolution == null ? "null" : "non-null", weather);
+    }
+}